@@ -43,6 +43,11 @@ dependencies {
 
     implementation("commons-cli:commons-cli:1.5.0")
 
+    // Archive formats for scenario extracts: tar container, zstd and LZ4 codecs
+    implementation("org.apache.commons:commons-compress:1.27.1")
+    implementation("com.github.luben:zstd-jni:1.5.6-8")
+    implementation("org.lz4:lz4-java:1.8.0")
+
     // Lombok
     compileOnly("org.projectlombok:lombok:1.18.34")
     annotationProcessor("org.projectlombok:lombok:1.18.34")
@@ -69,14 +74,45 @@ java {
 
 tasks.withType<JavaCompile> {
     options.encoding = "UTF-8"
+    // The SIMD CSV scanner uses the incubating Vector API; it is only loaded when the module is present at runtime.
+    // javac always prints "using incubating module(s): jdk.incubator.vector" for this. That warning is expected:
+    // it has no -Xlint key, and -nowarn would hide every other warning too.
+    options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector"))
 }
 
 tasks.test {
     useJUnitPlatform()
+    jvmArgs("--add-modules", "jdk.incubator.vector")
+    // Pass budget overrides (-Dperf.*) and -Dgolden.update through to the test JVM.
+    systemProperties(System.getProperties().filterKeys { key ->
+        key.toString().startsWith("perf.") || key == "golden.update"
+    }.mapKeys { it.key.toString() })
 }
 
 tasks.jar {
     manifest {
         attributes["Main-Class"] = "uk.co.threebugs.Runner"
     }
-}
\ No newline at end of file
+}
+
+// Records the classes loaded by a training run (Runner --cds_training) in an AppCDS archive next to the shaded
+// jar. Start the jar with -XX:SharedArchiveFile=build/libs/app-cds.jsa to use it; an archive only matches the
+// JDK and jar that created it.
+val appCds by tasks.registering(Exec::class) {
+    group = "build"
+    description = "Creates an AppCDS archive for the shaded jar from a training run."
+    val jar = tasks.shadowJar.flatMap { it.archiveFile }
+    val cdsArchive = layout.buildDirectory.file("libs/app-cds.jsa")
+    val launcher = javaToolchains.launcherFor { languageVersion.set(JavaLanguageVersion.of(21)) }
+    inputs.file(jar)
+    outputs.file(cdsArchive)
+    doFirst {
+        commandLine(
+            launcher.get().executablePath.asFile.absolutePath,
+            "-XX:ArchiveClassesAtExit=${cdsArchive.get().asFile.absolutePath}",
+            "--add-modules", "jdk.incubator.vector",
+            "-jar", jar.get().asFile.absolutePath,
+            "--cds_training"
+        )
+    }
+}
@@ -0,0 +1,105 @@
+package uk.co.threebugs;
+
+import lombok.extern.slf4j.Slf4j;
+import uk.co.threebugs.analysis.FileHandler;
+import uk.co.threebugs.analysis.RoutedTradeBytes;
+import uk.co.threebugs.analysis.TradeLineRouter;
+import uk.co.threebugs.analysis.TraderIdLookup;
+import uk.co.threebugs.archive.ArchiveSettings;
+import uk.co.threebugs.archive.ScenarioArchive;
+import uk.co.threebugs.conversion.RawTrades;
+import uk.co.threebugs.conversion.TradeOutput;
+import uk.co.threebugs.conversion.TradeProcessor;
+import uk.co.threebugs.pipeline.PipelineSettings;
+import uk.co.threebugs.s3.S3Access;
+import uk.co.threebugs.summary.TraderSelection;
+import uk.co.threebugs.traderindex.TraderIndex;
+import uk.co.threebugs.traderindex.TraderIndexStore;
+import uk.co.threebugs.tradelog.SegmentedTradeLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * A short job on generated data that goes through the same stages as a real run without any S3 request: summary
+ * filtering and trader selection, byte routing into a segmented trade log and a trader index sidecar, conversion
+ * into a scenario archive, and creating (but not using) the LZO codec and the S3 client. Running it with
+ * {@code -XX:ArchiveClassesAtExit} records the classes those stages load in an AppCDS archive.
+ */
+@Slf4j
+final class CdsTraining {
+
+    private static final String TRADES_HEADER = uk.co.threebugs.conversion.FileHandler.EXPECTED_HEADER;
+    private static final List<String> TRADERS = List.of("1000", "1001");
+    private static final int TRADES_PER_TRADER = 200;
+
+    private CdsTraining() {
+    }
+
+    static void run() throws IOException {
+        Path workDir = Files.createTempDirectory("cds-training");
+        try {
+            String summary = "traderid,dayofweek,hourofday,stop,limit,tickoffset,tradeduration,outoftime,totalprofit\n"
+                    + "1000,1,2,-100,200,0,14,8,50\n1001,1,2,-100,300,0,14,8,-20\n1001,1,2,-100,300,0,14,8,-20\n";
+            Set<String> traderIds = Runner.selectTraderIds(Runner.filterDuplicates(summary, List.of("dayofweek", "hourofday", "stop", "limit")),
+                    TraderSelection.of("dayofweek in (1, 2) and not stop < -500", "totalprofit", TRADERS.size()));
+
+            TraderIdLookup traders = new TraderIdLookup(traderIds);
+            TraderIndex.Builder index = new TraderIndex.Builder();
+            RoutedTradeBytes routed = new TradeLineRouter().route(new ByteArrayInputStream(rawTrades().getBytes(StandardCharsets.UTF_8)), traders, index);
+            TraderIndexStore indexStore = TraderIndexStore.directory(workDir.resolve("trader-index"));
+            indexStore.save(index.build("training/trades.lzo", "training"));
+            indexStore.load("training/trades.lzo", "training").mightContainAny(traderIds);
+            Path rawDir = workDir.resolve("raw");
+            try (SegmentedTradeLog tradeLog = SegmentedTradeLog.create(rawDir, TRADES_HEADER, SegmentedTradeLog.DEFAULT_SEGMENT_SIZE)) {
+                routed.forEachTrader((traderId, data, length, lineCount) -> tradeLog.append(traderId, data, 0, length));
+            }
+
+            TradeProcessor tradeProcessor = new TradeProcessor(PipelineSettings.defaults(), 100);
+            ScenarioArchive archive = ScenarioArchive.create(ArchiveSettings.defaults());
+            try {
+                tradeProcessor.convertTrades(RawTrades.log(SegmentedTradeLog.open(rawDir)), "training",
+                        TradeOutput.archive(archive).and(TradeOutput.directory(workDir)));
+            } finally {
+                archive.delete();
+            }
+
+            FileHandler.loadCodec();
+            try (S3Access s3 = new S3Access("eu-central-1", 1, 1)) {
+                s3.client();
+            }
+            log.info("CDS training run finished");
+        } finally {
+            try (Stream<Path> paths = Files.walk(workDir)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private static String rawTrades() {
+        StringBuilder csv = new StringBuilder(TRADES_HEADER).append('\n');
+        for (int i = 0; i < TRADES_PER_TRADER * TRADERS.size(); i++) {
+            int filled = 20_000 + (i * 37) % 500;
+            csv.append(i).append(',')
+                    .append(TRADERS.get(i % TRADERS.size())).append(',')
+                    .append("5,1,2,1,1,")
+                    .append(1_704_067_200 + (i * 7919) % 86_400).append(',')
+                    .append(filled + 100).append(',')
+                    .append(filled - 100).append(',')
+                    .append("CLOSED,")
+                    .append(filled).append(',')
+                    .append(filled + (i * 13) % 200 - 100).append(',')
+                    .append("1\n");
+        }
+        return csv.toString();
+    }
+}
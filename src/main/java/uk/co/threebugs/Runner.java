@@ -4,15 +4,32 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.cli.*;
 import software.amazon.awssdk.core.ResponseBytes;
 import software.amazon.awssdk.core.sync.ResponseTransformer;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.S3Object;
+import uk.co.threebugs.analysis.RoutingMode;
+import uk.co.threebugs.archive.ArchiveFormat;
+import uk.co.threebugs.archive.ArchiveSettings;
+import uk.co.threebugs.archive.ScenarioArchive;
 import uk.co.threebugs.analysis.S3ExtractsUploader;
 import uk.co.threebugs.analysis.S3TradesProcessor;
+import uk.co.threebugs.conversion.RawTrades;
+import uk.co.threebugs.conversion.TradeOutput;
 import uk.co.threebugs.conversion.TradeProcessor;
+import uk.co.threebugs.csv.CsvLine;
+import uk.co.threebugs.memory.MemoryBudget;
+import uk.co.threebugs.pipeline.Channel;
+import uk.co.threebugs.pipeline.PipelineSettings;
+import uk.co.threebugs.pipeline.StagedPipeline;
+import uk.co.threebugs.s3.S3Access;
+import uk.co.threebugs.s3.S3RequestScheduler;
+import uk.co.threebugs.summary.SummaryTable;
+import uk.co.threebugs.summary.TraderSelection;
+import uk.co.threebugs.tradelog.SegmentedTradeLog;
+import uk.co.threebugs.tradelog.StorageLayout;
+import uk.co.threebugs.traderindex.TraderIndexMode;
 
 import java.io.File;
 import java.io.IOException;
@@ -28,12 +45,23 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 public class Runner {
 
     private static final String SUMMARY_GRAPHS_BUCKET_NAME = System.getenv("S3_MOCHI_GRAPHS_BUCKET") != null ? System.getenv("S3_MOCHI_GRAPHS_BUCKET") : "mochi-prod-summary-graphs";
-    private static final Region REGION = Region.EU_CENTRAL_1;
+    private static final String REGION = "eu-central-1";
+    private static final int DEFAULT_S3_INITIAL_CONCURRENCY = 8;
+    // The SDK's HTTP client pools 50 connections by default.
+    private static final int DEFAULT_S3_MAX_CONCURRENCY = 48;
+    private static final int DEFAULT_EQUITY_CURVE_POINTS = 1000;
     private static final List<String> FILTER_COLUMNS = List.of("dayofweek", "hourofday", "stop", "limit", "tickoffset", "tradeduration", "outoftime");
     private static S3TradesProcessor s3TradesProcessor;
 
 
     public static void main(String[] args) throws IOException {
+        StartupClock.mainStarted();
+
+        if (Arrays.asList(args).contains("--cds_training")) {
+            // Checked before parsing because the training run has no symbol or scenario.
+            CdsTraining.run();
+            return;
+        }
 
         // Define command-line options using Apache Commons CLI.
         Options options = new Options();
@@ -41,10 +69,56 @@ public class Runner {
         Option symbolOption = Option.builder("s").longOpt("symbol").hasArg(true).desc("The symbol to process (required)").required(true).build();
         Option scenarioOption = Option.builder("c").longOpt("scenario").hasArg(true).desc("The scenario to process (required)").required(true).build();
         Option backTestIdOption = Option.builder().longOpt("back_test_id").hasArg(true).desc("The back test ID").required(false).build();
+        Option downloadConcurrencyOption = Option.builder().longOpt("download_concurrency").hasArg(true).desc("Number of concurrent S3 downloads").required(false).build();
+        Option decodeConcurrencyOption = Option.builder().longOpt("decode_concurrency").hasArg(true).desc("Number of trade objects decoded concurrently").required(false).build();
+        Option convertConcurrencyOption = Option.builder().longOpt("convert_concurrency").hasArg(true).desc("Number of trader files converted concurrently").required(false).build();
+        Option uploadConcurrencyOption = Option.builder().longOpt("upload_concurrency").hasArg(true).desc("Number of scenarios compressed and uploaded concurrently").required(false).build();
+        Option queueCapacityOption = Option.builder().longOpt("queue_capacity").hasArg(true).desc("Number of items buffered between pipeline stages").required(false).build();
+        Option routingModeOption = Option.builder().longOpt("routing_mode").hasArg(true).desc("How trade lines are routed to traders: bytes (default) or lines").required(false).build();
+        Option storageLayoutOption = Option.builder().longOpt("storage_layout").hasArg(true).desc("How raw trades are stored: files (default, one file per trader) or segmented (shared segment files with a per-trader index)").required(false).build();
+        Option traderIndexOption = Option.builder().longOpt("trader_index").hasArg(true).desc("Where per-object trader index sidecars are kept to skip trade objects without requested traders: local (default), s3 or off").required(false).build();
+        Option archiveFormatOption = Option.builder().longOpt("archive_format").hasArg(true).desc("Scenario archive format: zip (default), tar.zst or tar.lz4").required(false).build();
+        Option archiveLevelOption = Option.builder().longOpt("archive_level").hasArg(true).desc("Compression level of the scenario archive; 0 stores ZIP entries uncompressed").required(false).build();
+        Option archiveWorkersOption = Option.builder().longOpt("archive_workers").hasArg(true).desc("Number of zstd worker threads per archive").required(false).build();
+        Option s3InitialConcurrencyOption = Option.builder().longOpt("s3_initial_concurrency").hasArg(true).desc("Number of S3 requests allowed in flight at startup").required(false).build();
+        Option s3MaxConcurrencyOption = Option.builder().longOpt("s3_max_concurrency").hasArg(true).desc("Upper bound for the adaptive number of S3 requests in flight").required(false).build();
+        Option equityCurvePointsOption = Option.builder().longOpt("equity_curve_points").hasArg(true).desc("Number of points in each downsampled equity curve; 0 disables them").required(false).build();
+        Option directArchiveOption = Option.builder().longOpt("direct_archive").hasArg(false).desc("Write formatted trades and the summary straight into the scenario archive instead of the scenario directory; the archive is not fingerprinted and is uploaded on every run").required(false).build();
+        Option keepLocalFilesOption = Option.builder().longOpt("keep_local_files").hasArg(false).desc("With --direct_archive, also write formatted trades and the summary to the scenario directory").required(false).build();
+        Option skipUploadOption = Option.builder().longOpt("skip_upload").hasArg(false).desc("Convert the scenario without uploading it").required(false).build();
+        Option cdsTrainingOption = Option.builder().longOpt("cds_training").hasArg(false).desc("Run a local training job on generated data to record classes for an AppCDS archive, then exit").required(false).build();
+        Option traderFilterOption = Option.builder().longOpt("trader_filter").hasArg(true).desc("Only extract trades of traders whose summary row matches this expression, e.g. \"dayofweek in (1, 2) and stop >= -500 and totalprofit > 0\"").required(false).build();
+        Option rankByOption = Option.builder().longOpt("rank_by").hasArg(true).desc("Summary column to rank traders by, with an optional :asc or :desc (default) suffix").required(false).build();
+        Option topOption = Option.builder().longOpt("top").hasArg(true).desc("Only extract trades of the best ranked N traders; needs --rank_by").required(false).build();
+        Option memoryBudgetOption = Option.builder().longOpt("memory_budget_mb").hasArg(true).desc("Memory in MiB shared by routing batches, summary downloads and sorts (default: half of the smaller of the maximum heap and the container limit)").required(false).build();
+        Option forceUploadOption = Option.builder().longOpt("force_upload").hasArg(false).desc("Upload every scenario even if it is unchanged since its last upload; --direct_archive always uploads").required(false).build();
 
         options.addOption(symbolOption);
         options.addOption(scenarioOption);
         options.addOption(backTestIdOption);
+        options.addOption(downloadConcurrencyOption);
+        options.addOption(decodeConcurrencyOption);
+        options.addOption(convertConcurrencyOption);
+        options.addOption(uploadConcurrencyOption);
+        options.addOption(queueCapacityOption);
+        options.addOption(routingModeOption);
+        options.addOption(storageLayoutOption);
+        options.addOption(traderIndexOption);
+        options.addOption(archiveFormatOption);
+        options.addOption(archiveLevelOption);
+        options.addOption(archiveWorkersOption);
+        options.addOption(s3InitialConcurrencyOption);
+        options.addOption(s3MaxConcurrencyOption);
+        options.addOption(equityCurvePointsOption);
+        options.addOption(directArchiveOption);
+        options.addOption(keepLocalFilesOption);
+        options.addOption(forceUploadOption);
+        options.addOption(skipUploadOption);
+        options.addOption(cdsTrainingOption);
+        options.addOption(traderFilterOption);
+        options.addOption(rankByOption);
+        options.addOption(topOption);
+        options.addOption(memoryBudgetOption);
 
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
@@ -59,126 +133,249 @@ public class Runner {
             return;
         }
 
+        int memoryBudgetMb = intOption(cmd, "memory_budget_mb", 0);
+        try (MemoryBudget memoryBudget = memoryBudgetMb > 0 ? new MemoryBudget("trade-extract", (long) memoryBudgetMb << 20) : MemoryBudget.fromEnvironment("trade-extract")) {
+            run(cmd, memoryBudget);
+        }
+    }
+
+    /**
+     * Downloads, converts and uploads the scenario named on the command line. S3 clients opened here are closed
+     * when it returns or fails.
+     */
+    private static void run(CommandLine cmd, MemoryBudget memoryBudget) throws IOException {
         // Retrieve the symbol and scenario values.
         String symbol = cmd.getOptionValue("symbol");
         String scenario = cmd.getOptionValue("scenario");
         String backTestId = cmd.getOptionValue("back_test_id");
 
+        PipelineSettings defaults = PipelineSettings.defaults();
+        PipelineSettings pipelineSettings = new PipelineSettings(
+                intOption(cmd, "download_concurrency", defaults.downloadConcurrency()),
+                intOption(cmd, "decode_concurrency", defaults.decodeConcurrency()),
+                intOption(cmd, "convert_concurrency", defaults.convertConcurrency()),
+                intOption(cmd, "upload_concurrency", defaults.uploadConcurrency()),
+                intOption(cmd, "queue_capacity", defaults.queueCapacity()),
+                memoryBudget);
+        RoutingMode routingMode = RoutingMode.valueOf(cmd.getOptionValue("routing_mode", "bytes").toUpperCase(Locale.ROOT));
+        StorageLayout storageLayout = StorageLayout.valueOf(cmd.getOptionValue("storage_layout", "files").toUpperCase(Locale.ROOT));
+        TraderIndexMode traderIndexMode = TraderIndexMode.valueOf(cmd.getOptionValue("trader_index", "local").toUpperCase(Locale.ROOT));
+        ArchiveSettings archiveSettings = ArchiveSettings.of(
+                ArchiveFormat.fromId(cmd.getOptionValue("archive_format", ArchiveFormat.ZIP.getId())),
+                cmd.getOptionValue("archive_level") != null ? intOption(cmd, "archive_level", 0) : null,
+                intOption(cmd, "archive_workers", 0));
+        boolean directArchive = cmd.hasOption("direct_archive");
+        boolean keepLocalFiles = !directArchive || cmd.hasOption("keep_local_files");
+        boolean skipUpload = cmd.hasOption("skip_upload");
+        TraderSelection traderSelection = TraderSelection.of(cmd.getOptionValue("trader_filter"), cmd.getOptionValue("rank_by"), intOption(cmd, "top", 0));
+
         // Log the received parameters.
         log.info("Received symbol: {}", symbol);
         log.info("Received scenario: {}", scenario);
         log.info("Received back_test_id: {}", backTestId);
+        log.info("Pipeline settings: {}", pipelineSettings);
+        log.info("Routing mode: {}", routingMode);
+        log.info("Storage layout: {}", storageLayout);
+        log.info("Trader index: {}", traderIndexMode);
+        log.info("Archive settings: {}", archiveSettings);
+        log.info("Direct archive: {}, keep local files: {}, skip upload: {}", directArchive, keepLocalFiles, skipUpload);
+        log.info("Trader selection: {}", traderSelection);
 
         // Create the output directory on startup if it doesn't exist.
         Path outputDir = Paths.get("output");
         Path scenarioDir = outputDir.resolve(backTestId).resolve(symbol).resolve(scenario);
 
-        S3Client s3Client = S3Client.builder().region(REGION).build();
+        // The AWS SDK is loaded only once a stage needs S3; re-converting a scenario that is on disk may not.
+        try (S3Access s3 = new S3Access(REGION,
+                intOption(cmd, "s3_initial_concurrency", DEFAULT_S3_INITIAL_CONCURRENCY),
+                intOption(cmd, "s3_max_concurrency", DEFAULT_S3_MAX_CONCURRENCY))) {
+
+            S3ExtractsUploader s3ExtractsUploader = new S3ExtractsUploader(s3, pipelineSettings, archiveSettings, cmd.hasOption("force_upload"));
+            ScenarioArchive scenarioArchive = directArchive ? ScenarioArchive.create(archiveSettings) : null;
+            TradeOutput scenarioOutput = scenarioOutput(scenarioDir, scenarioArchive, keepLocalFiles);
 
-        File scenarioFile = scenarioDir.toFile();
-        if (!scenarioFile.exists()) {
+            File scenarioFile = scenarioDir.toFile();
+            if (!scenarioFile.exists()) {
 
-            try {
-                Files.createDirectories(scenarioDir);
-                log.info("Output directory created or already exists: {}", outputDir.toAbsolutePath());
-            } catch (IOException e) {
-                log.error("Failed to create output directory {}: {}", outputDir.toAbsolutePath(), e.getMessage(), e);
-                System.exit(1);
+                try {
+                    Files.createDirectories(scenarioDir);
+                    log.info("Output directory created or already exists: {}", outputDir.toAbsolutePath());
+                } catch (IOException e) {
+                    log.error("Failed to create output directory {}: {}", outputDir.toAbsolutePath(), e.getMessage(), e);
+                    System.exit(1);
+                }
+                s3TradesProcessor = new S3TradesProcessor(s3.client(), s3.scheduler(), pipelineSettings, routingMode, storageLayout, traderIndexMode);
+
+                groupAndProcessFiles(s3.client(), s3.scheduler(), symbol, backTestId + "/" + symbol + "/" + scenario, backTestId, pipelineSettings, scenarioOutput, traderSelection);
+
+            } else {
+                log.info("Output directory already exists for symbol {} and scenario {}. Skipping processing.", symbol, scenario);
+                if (directArchive) {
+                    archiveExistingSummary(s3, symbol, backTestId + "/" + symbol + "/" + scenario, scenarioDir, backTestId, pipelineSettings, scenarioArchive);
+                }
             }
-            s3TradesProcessor = new S3TradesProcessor(s3Client);
 
-            groupAndProcessFiles(s3Client, symbol, backTestId + "/" + symbol + "/" + scenario, outputDir, backTestId);
+            TradeProcessor tradeProcessor = new TradeProcessor(pipelineSettings, intOption(cmd, "equity_curve_points", DEFAULT_EQUITY_CURVE_POINTS));
 
-        } else {
-            log.info("Output directory already exists for symbol {} and scenario {}. Skipping processing.", symbol, scenario);
-        }
 
-        TradeProcessor tradeProcessor = new TradeProcessor();
+            File rawDir = scenarioDir.resolve("raw").toFile();
+            if (!rawDir.exists()) {
+                throw new IllegalStateException("Raw directory does not exist: " + rawDir.getAbsolutePath());
+            }
 
+            // The layout is taken from the raw directory, so a scenario downloaded by an earlier run is read as written.
+            RawTrades rawTrades;
+            if (SegmentedTradeLog.exists(rawDir.toPath())) {
+                rawTrades = RawTrades.log(SegmentedTradeLog.open(rawDir.toPath()));
+            } else {
+                File[] files = rawDir.listFiles();
+                if (files == null) {
+                    throw new IllegalStateException("Unable to list files in directory: " + rawDir.getAbsolutePath());
+                }
+                rawTrades = RawTrades.files(Arrays.stream(files).toList());
+            }
 
-        File rawDir = scenarioDir.resolve("raw").toFile();
-        if (!rawDir.exists()) {
-            throw new IllegalStateException("Raw directory does not exist: " + rawDir.getAbsolutePath());
-        }
+            if (directArchive) {
+                // Only this run's scenario has an archive to upload; other scenario directories hold raw files only.
+                tradeProcessor.convertTrades(rawTrades, scenario, scenarioOutput);
+                log.info("Finished processing trader file: {} {} {}", backTestId, symbol, scenario);
+                scenarioArchive.addDirectory("raw/", rawDir.toPath());
+                if (skipUpload) {
+                    scenarioArchive.delete();
+                } else {
+                    s3ExtractsUploader.pushScenarioArchive(scenarioArchive, s3ExtractsUploader.scenarioKey(backTestId, symbol, scenario));
+                }
+            } else {
+                tradeProcessor.processTrades(rawTrades, symbol, scenario, backTestId);
+                log.info("Finished processing trader file: {} {} {}", backTestId, symbol, scenario);
 
-        File[] files = rawDir.listFiles();
-        if (files == null) {
-            throw new IllegalStateException("Unable to list files in directory: " + rawDir.getAbsolutePath());
+                if (!skipUpload) {
+                    s3ExtractsUploader.compressAndPushAllScenarios(outputDir.resolve(backTestId).resolve(symbol), backTestId);
+                }
+            }
         }
+    }
 
-        List<File> tradeFiles = Arrays.stream(files).toList();
+    /**
+     * Where the summary and formatted trades of the scenario are written: the scenario directory, the
+     * scenario archive, or both.
+     */
+    private static TradeOutput scenarioOutput(Path scenarioDir, ScenarioArchive scenarioArchive, boolean keepLocalFiles) {
+        if (scenarioArchive == null) {
+            return TradeOutput.directory(scenarioDir);
+        }
+        TradeOutput archiveOutput = TradeOutput.archive(scenarioArchive);
+        return keepLocalFiles ? archiveOutput.and(TradeOutput.directory(scenarioDir)) : archiveOutput;
+    }
 
-        tradeProcessor.processTrades(tradeFiles, symbol, scenario, backTestId);
-        log.info("Finished processing trader file: {} {} {}", backTestId, symbol, scenario);
+    /**
+     * Adds the summary of an already downloaded scenario to its archive. The summary is taken from the scenario
+     * directory if an earlier run kept it there, and downloaded again otherwise.
+     */
+    private static void archiveExistingSummary(S3Access s3, String symbol, String scenario, Path scenarioDir, String backTestId, PipelineSettings settings, ScenarioArchive scenarioArchive) throws IOException {
+        String summaryName = summaryFileName(scenario);
+        Path summaryFile = scenarioDir.resolve(summaryName);
+        if (Files.exists(summaryFile)) {
+            scenarioArchive.addBytes(summaryName, Files.readAllBytes(summaryFile));
+            return;
+        }
 
+        String summary = downloadScenarioSummary(s3.client(), s3.scheduler(), symbol, scenario, backTestId, settings);
+        if (summary != null) {
+            scenarioArchive.addBytes(summaryName, summary.getBytes(UTF_8));
+        }
+    }
 
-        S3ExtractsUploader s3ExtractsUploader = new S3ExtractsUploader(s3Client);
-        s3ExtractsUploader.compressAndPushAllScenarios(outputDir.resolve(backTestId).resolve(symbol), backTestId);
+    private static String summaryFileName(String scenario) {
+        return scenario.substring(scenario.lastIndexOf("/") + 1) + ".csv";
+    }
 
+    private static int intOption(CommandLine cmd, String name, int defaultValue) {
+        String value = cmd.getOptionValue(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option --" + name + " must be an integer: " + value, e);
+        }
     }
 
     /**
-     * Groups S3 keys by scenario, processes each group, and writes a file per scenario.
+     * Downloads the summary of a scenario, processes its trades, and writes the summary to the scenario output.
      *
-     * @param s3Client   The S3 client.
-     * @param symbol     The symbol
-     * @param outputDir
+     * @param s3Client       The S3 client.
+     * @param s3Scheduler    The scheduler that limits S3 requests in flight.
+     * @param symbol         The symbol
+     * @param scenario       The scenario path: "backTestId/symbol/scenario".
      * @param backTestId
+     * @param settings       The concurrency limits for downloads.
+     * @param scenarioOutput Where the summary is written: the scenario directory, the scenario archive, or both.
+     * @param selection      The traders of the summary whose trades are extracted.
      */
-    public static void groupAndProcessFiles(S3Client s3Client, String symbol, String scenario2, Path outputDir, String backTestId) throws IOException {
-        // List all relevant CSV keys from S3.
-        List<String> keys = listS3Keys(s3Client, SUMMARY_GRAPHS_BUCKET_NAME, backTestId + "/" + symbol + "/");
-        Map<String, List<String>> scenarioGroups = new HashMap<>();
-
-        // Group keys by scenario. Assuming the key format is:
-        // "<PREFIX><scenario>/<other folders>/...csv"
-        for (String key : keys) {
-
-                if (key.contains(scenario2 + "/")) {
-                    scenarioGroups.computeIfAbsent(scenario2, k -> new ArrayList<>()).add(key);
-                }
-
+    public static void groupAndProcessFiles(S3Client s3Client, S3RequestScheduler s3Scheduler, String symbol, String scenario, String backTestId, PipelineSettings settings, TradeOutput scenarioOutput, TraderSelection selection) throws IOException {
+        String aggregatedContent = downloadScenarioSummary(s3Client, s3Scheduler, symbol, scenario, backTestId, settings);
+        if (aggregatedContent == null) {
+            log.warn("No summary files found for scenario '{}'", scenario);
+            return;
         }
 
-        // Process each scenario group.
-        for (Map.Entry<String, List<String>> entry : scenarioGroups.entrySet()) {
-            String scenario = entry.getKey();
-            List<String> scenarioKeys = entry.getValue();
+        try {
+            String summaryName = summaryFileName(scenario);
+            scenarioOutput.write(summaryName, aggregatedContent.getBytes(UTF_8));
+            log.info("Summary written for scenario '{}': {}", scenario, summaryName);
+        } catch (IOException e) {
+            log.error("Error writing file for scenario '{}'", scenario, e);
+            throw new IOException("Failed to write aggregated CSV content for scenario: " + scenario, e);
+        }
 
-            // Download and concatenate CSV content for the group.
-            String aggregatedContent = processCsvGroup(s3Client, SUMMARY_GRAPHS_BUCKET_NAME, scenarioKeys);
-            // Remove duplicate rows.
-            aggregatedContent = filterDuplicates(aggregatedContent, FILTER_COLUMNS);
+        Set<String> traderIds = selectTraderIds(aggregatedContent, selection);
 
+        s3TradesProcessor.processTrades(symbol, scenario, traderIds, backTestId);
+    }
 
-            try {
-                Path outputPath = outputDir.resolve(scenario).resolve(scenario.substring(scenario.lastIndexOf("/") +1) + ".csv");
-                Files.writeString(outputPath, aggregatedContent, UTF_8);
-                log.info("File written for scenario '{}': {}", scenario, outputPath.toAbsolutePath());
-            } catch (IOException e) {
-                log.error("Error writing file for scenario '{}'", scenario, e);
-                throw new IOException("Failed to write aggregated CSV content for scenario: " + scenario, e);
+    /**
+     * Downloads and concatenates the summary CSV files of a scenario and removes duplicate rows.
+     *
+     * @param s3Client    The S3 client.
+     * @param s3Scheduler The scheduler that limits S3 requests in flight.
+     * @param symbol      The symbol
+     * @param scenario    The scenario path: "backTestId/symbol/scenario".
+     * @param backTestId
+     * @param settings    The concurrency limits for downloads.
+     * @return The filtered summary, or null if the scenario has no summary files.
+     */
+    public static String downloadScenarioSummary(S3Client s3Client, S3RequestScheduler s3Scheduler, String symbol, String scenario, String backTestId, PipelineSettings settings) throws IOException {
+        // List all relevant CSV keys from S3. Assuming the key format is:
+        // "<PREFIX><scenario>/<other folders>/...csv"
+        List<S3Object> scenarioObjects = new ArrayList<>();
+        for (S3Object object : listCsvObjects(s3Client, s3Scheduler, SUMMARY_GRAPHS_BUCKET_NAME, backTestId + "/" + symbol + "/")) {
+            if (object.key().contains(scenario + "/")) {
+                scenarioObjects.add(object);
             }
-
-            Set<String> traderIds = extractTraderIds(aggregatedContent);
-
-            s3TradesProcessor.processTrades(symbol, scenario, traderIds, backTestId);
-
-
-
         }
+        if (scenarioObjects.isEmpty()) {
+            return null;
+        }
+
+        // Download and concatenate CSV content for the group.
+        String aggregatedContent = processCsvGroup(s3Client, s3Scheduler, SUMMARY_GRAPHS_BUCKET_NAME, scenarioObjects, settings);
+        // Remove duplicate rows.
+        return filterDuplicates(aggregatedContent, FILTER_COLUMNS);
     }
 
     /**
-     * Lists all CSV keys under the specified prefix in the given S3 bucket.
+     * Lists all CSV objects under the specified prefix in the given S3 bucket.
      *
-     * @param s3Client   The S3 client.
-     * @param bucketName The S3 bucket name.
-     * @param prefix     The key prefix.
-     * @return A list of S3 keys that end with ".csv".
+     * @param s3Client    The S3 client.
+     * @param s3Scheduler The scheduler that limits S3 requests in flight.
+     * @param bucketName  The S3 bucket name.
+     * @param prefix      The key prefix.
+     * @return The objects whose keys end with ".csv", in listing order.
      */
-    public static List<String> listS3Keys(S3Client s3Client, String bucketName, String prefix) {
-        List<String> keys = new ArrayList<>();
+    public static List<S3Object> listCsvObjects(S3Client s3Client, S3RequestScheduler s3Scheduler, String bucketName, String prefix) throws IOException {
+        List<S3Object> objects = new ArrayList<>();
         String continuationToken = null;
 
         do {
@@ -187,62 +384,96 @@ public class Runner {
                 requestBuilder.continuationToken(continuationToken);
             }
             ListObjectsV2Request request = requestBuilder.build();
-            ListObjectsV2Response response = s3Client.listObjectsV2(request);
+            ListObjectsV2Response response = s3Scheduler.execute("ListObjectsV2", () -> s3Client.listObjectsV2(request));
 
             for (S3Object object : response.contents()) {
                 if (object.key().endsWith(".csv")) {
-                    keys.add(object.key());
+                    objects.add(object);
                 }
             }
             continuationToken = response.nextContinuationToken();
         } while (continuationToken != null);
 
-        return keys;
+        return objects;
     }
 
     /**
-     * Downloads and concatenates CSV content from S3 for a list of keys.
+     * Downloads and concatenates CSV content from S3 for a list of objects.
      * The first file's header is kept; for subsequent files, the header is removed.
+     * Downloads run concurrently, but the content is concatenated in listing order. The whole summary is
+     * held in memory, so before anything is downloaded the listed sizes of the parts, plus as much again for
+     * the concatenated copy, are reserved from the memory budget, waiting for other reservations to be
+     * released if needed.
      *
-     * @param s3Client   The S3 client.
-     * @param bucketName The S3 bucket name.
-     * @param keys       A list of S3 keys.
+     * @param s3Client    The S3 client.
+     * @param s3Scheduler The scheduler that limits S3 requests in flight.
+     * @param bucketName  The S3 bucket name.
+     * @param objects     The listed S3 objects.
+     * @param settings    The concurrency limits for downloads and the memory budget.
      * @return A concatenated CSV content as a String.
      */
-    public static String processCsvGroup(S3Client s3Client, String bucketName, List<String> keys) {
-        StringBuilder concatenatedCsv = new StringBuilder();
-        boolean isFirstFile = true;
-
-        for (String key : keys) {
-            log.info("Downloading file: {}", key);
-            String csvContent = downloadCsvContent(s3Client, bucketName, key);
-            if (!isFirstFile) {
-                // Remove the header (first line) for subsequent files.
-                int firstLineBreak = csvContent.indexOf('\n');
-                if (firstLineBreak > 0) {
-                    csvContent = csvContent.substring(firstLineBreak + 1);
-                }
+    public static String processCsvGroup(S3Client s3Client, S3RequestScheduler s3Scheduler, String bucketName, List<S3Object> objects, PipelineSettings settings) throws IOException {
+        MemoryBudget budget = settings.memoryBudget();
+        long totalBytes = 0;
+        for (S3Object object : objects) {
+            totalBytes += object.size() != null ? object.size() : 0;
+        }
+        long reservedBytes = 2 * totalBytes;
+        budget.reserve(reservedBytes);
+        try {
+            String[] contents = new String[objects.size()];
+            try (StagedPipeline pipeline = new StagedPipeline("summary " + bucketName)) {
+                Channel<Integer> indices = pipeline.channel("keys", settings.queueCapacity());
+                pipeline.source("list", indices, out -> {
+                    for (int i = 0; i < objects.size(); i++) {
+                        out.emit(i);
+                    }
+                });
+                pipeline.sink("download", settings.downloadConcurrency(), indices, i -> {
+                    log.info("Downloading file: {}", objects.get(i).key());
+                    contents[i] = downloadCsvContent(s3Client, s3Scheduler, bucketName, objects.get(i).key());
+                });
+                pipeline.await();
             }
-            concatenatedCsv.append(csvContent);
-            if (!csvContent.endsWith("\n")) {
-                concatenatedCsv.append("\n");
+
+            StringBuilder concatenatedCsv = new StringBuilder((int) Math.min(totalBytes + objects.size(), Integer.MAX_VALUE - 8));
+            boolean isFirstFile = true;
+
+            for (int i = 0; i < objects.size(); i++) {
+                String csvContent = contents[i];
+                // Each part is dropped once copied, so the parts and the concatenated copy together stay within the reservation.
+                contents[i] = null;
+                if (!isFirstFile) {
+                    // Remove the header (first line) for subsequent files.
+                    int firstLineBreak = csvContent.indexOf('\n');
+                    if (firstLineBreak > 0) {
+                        csvContent = csvContent.substring(firstLineBreak + 1);
+                    }
+                }
+                concatenatedCsv.append(csvContent);
+                if (!csvContent.endsWith("\n")) {
+                    concatenatedCsv.append("\n");
+                }
+                isFirstFile = false;
             }
-            isFirstFile = false;
+            return concatenatedCsv.toString().replace("\"", "");
+        } finally {
+            budget.release(reservedBytes);
         }
-        return concatenatedCsv.toString().replace("\"", "");
     }
 
     /**
      * Downloads the CSV content from S3 as a String.
      *
-     * @param s3Client   The S3 client.
-     * @param bucketName The S3 bucket name.
-     * @param key        The S3 key for the CSV file.
+     * @param s3Client    The S3 client.
+     * @param s3Scheduler The scheduler that limits S3 requests in flight.
+     * @param bucketName  The S3 bucket name.
+     * @param key         The S3 key for the CSV file.
      * @return The file content as a String.
      */
-    public static String downloadCsvContent(S3Client s3Client, String bucketName, String key) {
+    public static String downloadCsvContent(S3Client s3Client, S3RequestScheduler s3Scheduler, String bucketName, String key) throws IOException {
         GetObjectRequest getObjectRequest = GetObjectRequest.builder().bucket(bucketName).key(key).build();
-        ResponseBytes<?> objectBytes = s3Client.getObject(getObjectRequest, ResponseTransformer.toBytes());
+        ResponseBytes<?> objectBytes = s3Scheduler.execute("GetObject", () -> s3Client.getObject(getObjectRequest, ResponseTransformer.toBytes()));
         return objectBytes.asString(UTF_8);
     }
 
@@ -294,17 +525,18 @@ public class Runner {
         int duplicateCount = 0;
 
         // Process each subsequent row.
+        CsvLine fields = new CsvLine();
         for (int i = 1; i < lines.length; i++) {
             String line = lines[i];
             // Skip empty lines.
             if (line.trim().isEmpty()) {
                 continue;
             }
-            String[] tokens = line.split(",");
+            fields.reset(line);
             StringBuilder rowKeyBuilder = new StringBuilder();
             for (int idx : filterIndices) {
-                if (idx < tokens.length) {
-                    rowKeyBuilder.append(tokens[idx].trim()).append("|");
+                if (idx < fields.fieldCount()) {
+                    rowKeyBuilder.append(fields.trimmedField(idx)).append("|");
                 }
             }
             String rowKey = rowKeyBuilder.toString();
@@ -322,6 +554,24 @@ public class Runner {
         return filteredOutput.toString();
     }
 
+    /**
+     * Returns the traderIds of the summary rows chosen by {@code selection}. The whole summary is still written to
+     * the scenario output; only the trades of the chosen traders are downloaded and routed.
+     *
+     * @param csvData   The summary CSV content.
+     * @param selection The filter and ranking to apply to the summary columns.
+     * @return The chosen traderIds, best ranked first if the selection ranks them.
+     */
+    public static Set<String> selectTraderIds(String csvData, TraderSelection selection) {
+        if (selection.selectsAll()) {
+            return extractTraderIds(csvData);
+        }
+        SummaryTable table = SummaryTable.parse(csvData);
+        Set<String> traderIds = selection.select(table);
+        log.info("Selected {} traders from {} summary rows with {}", traderIds.size(), table.rowCount(), selection);
+        return traderIds;
+    }
+
     /**
      * Extracts and returns a Set of traderIds from the provided CSV data.
      * Assumes that the CSV header includes a column named "traderid".
@@ -355,14 +605,15 @@ public class Runner {
         }
 
         // Process each subsequent row.
+        CsvLine fields = new CsvLine();
         for (int i = 1; i < lines.length; i++) {
             String line = lines[i];
             if (line.trim().isEmpty()) {
                 continue;
             }
-            String[] tokens = line.split(",");
-            if (traderIdIndex < tokens.length) {
-                String traderId = tokens[traderIdIndex].trim().replace("\"", "");
+            fields.reset(line);
+            if (traderIdIndex < fields.fieldCount()) {
+                String traderId = fields.trimmedField(traderIdIndex).replace("\"", "");
                 traderIds.add(traderId);
             } else {
                 log.warn("Skipping line {} as it doesn't contain enough columns.", i + 1);
@@ -0,0 +1,42 @@
+package uk.co.threebugs;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Logs how long a run took to reach its first trade record, measured from JVM start and from the start of
+ * {@code main}. The difference between the two is JVM startup; the rest is class loading and setup in the
+ * application, which is what lazy loading and AppCDS reduce.
+ */
+@Slf4j
+public final class StartupClock {
+
+    private static final AtomicBoolean FIRST_RECORD_SEEN = new AtomicBoolean();
+    private static volatile long mainStartNanos = System.nanoTime();
+
+    private StartupClock() {
+    }
+
+    static void mainStarted() {
+        mainStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Logs the time to the first record on the first call; later calls only read a flag.
+     *
+     * @param stage The stage that reached the first record, for the log message.
+     */
+    public static void firstRecord(String stage) {
+        if (FIRST_RECORD_SEEN.get() || !FIRST_RECORD_SEEN.compareAndSet(false, true)) {
+            return;
+        }
+        long sinceMainMillis = (System.nanoTime() - mainStartNanos) / 1_000_000;
+        long sinceJvmStartMillis = ProcessHandle.current().info().startInstant()
+                .map(start -> Duration.between(start, Instant.now()).toMillis())
+                .orElse(-1L);
+        log.info("Time to first record: {} ms since JVM start, {} ms since main (stage {})", sinceJvmStartMillis, sinceMainMillis, stage);
+    }
+}
@@ -10,12 +10,42 @@ import java.io.*;
 public class FileHandler {
 
     public BufferedReader getReader(File file) throws IOException {
-        var config = new Configuration();
-        var codec = new LzopCodec();
-        codec.setConf(config);
-        InputStream in = codec.createInputStream(new FileInputStream(file));
-        return new BufferedReader(new InputStreamReader(in));
+        return new BufferedReader(new InputStreamReader(getInputStream(file)));
     }
 
+    /**
+     * Opens the LZO file as a stream of decompressed bytes.
+     */
+    public InputStream getInputStream(File file) throws IOException {
+        return LzoCodecHolder.open(file);
+    }
+
+    /**
+     * Loads Hadoop and the LZO codec without opening a file, so their classes can be archived for AppCDS.
+     */
+    public static void loadCodec() {
+        LzoCodecHolder.CODEC.getDefaultExtension();
+    }
+
+    /**
+     * Hadoop's Configuration and the codec are expensive to load and initialize, so they are created once, on
+     * the first LZO file rather than when the application starts. The codec creates a new stream per call and
+     * can be shared between decode workers.
+     */
+    private static final class LzoCodecHolder {
 
+        private static final LzopCodec CODEC = createCodec();
+
+        private static LzopCodec createCodec() {
+            long start = System.nanoTime();
+            LzopCodec codec = new LzopCodec();
+            codec.setConf(new Configuration());
+            log.info("Loaded LZO codec in {} ms", (System.nanoTime() - start) / 1_000_000);
+            return codec;
+        }
+
+        static InputStream open(File file) throws IOException {
+            return CODEC.createInputStream(new FileInputStream(file));
+        }
+    }
 }
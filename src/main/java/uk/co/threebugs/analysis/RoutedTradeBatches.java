@@ -0,0 +1,132 @@
+package uk.co.threebugs.analysis;
+
+import uk.co.threebugs.memory.MemoryBudget;
+import uk.co.threebugs.pipeline.SequenceGate;
+
+import java.io.IOException;
+
+/**
+ * Routes the lines of one trade object into batches that stay within a {@link MemoryBudget}. Objects are
+ * numbered in the order they must be written, and a {@link SequenceGate} shared by all objects says whose turn
+ * it is to pass batches on.
+ * <p>
+ * When the current batch cannot grow, an object whose turn it is not yet waits for its turn instead of
+ * growing past the budget, so the writer never holds batches of later objects. Once it is the object's turn,
+ * the batch is handed to {@code flush} early and a new batch is started, so a large object is written in
+ * several batches instead of being held whole. While the other objects hold the budget, batches are grown past
+ * it until they hold at least {@link #minBatchBytes()} of lines, so they never shrink to a line or two.
+ * <p>
+ * Batches reach {@code flush} in line order, and the batch returned by {@link #finish()} holds the last lines.
+ * The caller passes it on and then advances the gate.
+ */
+public class RoutedTradeBatches {
+
+    /**
+     * The most lines a batch is grown past the budget to hold before it is flushed.
+     */
+    public static final long MAX_MIN_BATCH_BYTES = 4L * 1024 * 1024;
+
+    private final TraderIdLookup traders;
+    private final MemoryBudget budget;
+    private final SequenceGate gate;
+    private final long sequence;
+    private final BatchConsumer flush;
+    private final long minBatchBytes;
+    private RoutedTradeBytes current;
+    private int flushCount;
+    private int waitCount;
+
+    /**
+     * Batches for a single object, whose turn it always is.
+     *
+     * @param traders The requested traders.
+     * @param budget  The budget the batch buffers are reserved from.
+     * @param flush   Receives each full batch; it owns the batch and must {@link RoutedTradeBytes#release()} it.
+     */
+    public RoutedTradeBatches(TraderIdLookup traders, MemoryBudget budget, BatchConsumer flush) {
+        this(traders, budget, new SequenceGate(), 0, flush);
+    }
+
+    /**
+     * @param traders  The requested traders.
+     * @param budget   The budget the batch buffers are reserved from.
+     * @param gate     Says which object may pass batches on.
+     * @param sequence The position of this object in the order objects are written.
+     * @param flush    Receives each full batch; it owns the batch and must {@link RoutedTradeBytes#release()} it.
+     */
+    public RoutedTradeBatches(TraderIdLookup traders, MemoryBudget budget, SequenceGate gate, long sequence, BatchConsumer flush) {
+        this.traders = traders;
+        this.budget = budget;
+        this.gate = gate;
+        this.sequence = sequence;
+        this.flush = flush;
+        this.minBatchBytes = Math.min(MAX_MIN_BATCH_BYTES, Math.max(1, budget.getLimitBytes() / 8));
+        this.current = new RoutedTradeBytes(traders, budget);
+    }
+
+    public TraderIdLookup traders() {
+        return traders;
+    }
+
+    /**
+     * Appends {@code src[from, to)} followed by a newline to the lines of the given trader, waiting for the
+     * object's turn if the budget is used up.
+     *
+     * @throws java.io.InterruptedIOException If the thread is interrupted while waiting for its turn.
+     */
+    public void appendLine(int trader, byte[] src, int from, int to) throws IOException {
+        if (current.tryAppendLine(trader, src, from, to)) {
+            return;
+        }
+        if (!gate.isTurn(sequence)) {
+            waitCount++;
+            gate.awaitTurn(sequence);
+            if (current.tryAppendLine(trader, src, from, to)) {
+                return;
+            }
+        }
+        if (current.byteCount() >= minBatchBytes) {
+            flush.accept(current);
+            flushCount++;
+            current = new RoutedTradeBytes(traders, budget);
+            if (current.tryAppendLine(trader, src, from, to)) {
+                return;
+            }
+        }
+        current.appendLine(trader, src, from, to);
+    }
+
+    /**
+     * The number of batches handed to {@code flush} before {@link #finish()}.
+     */
+    public int flushCount() {
+        return flushCount;
+    }
+
+    /**
+     * The number of times routing stopped to wait for the object's turn.
+     */
+    public int waitCount() {
+        return waitCount;
+    }
+
+    /**
+     * The bytes of lines a batch is grown past the budget to hold before it is flushed: an eighth of the budget, at most
+     * {@link #MAX_MIN_BATCH_BYTES}.
+     */
+    public long minBatchBytes() {
+        return minBatchBytes;
+    }
+
+    /**
+     * @return The batch holding the lines appended since the last flush.
+     */
+    public RoutedTradeBytes finish() {
+        return current;
+    }
+
+    @FunctionalInterface
+    public interface BatchConsumer {
+        void accept(RoutedTradeBytes batch) throws IOException;
+    }
+}
@@ -0,0 +1,203 @@
+package uk.co.threebugs.analysis;
+
+import uk.co.threebugs.memory.MemoryBudget;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The raw trade lines of one trade object, or of one batch of it, grouped by trader. Each trader's lines are
+ * kept as UTF-8 bytes, newline-terminated, in the order they were read. Only the traders that have lines get a
+ * slot, so a batch costs the same whether ten or ten thousand traders were requested. Buffer and slot growth
+ * is reserved from a {@link MemoryBudget} and given back by {@link #release()} once the lines are written.
+ */
+public class RoutedTradeBytes {
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final int INITIAL_SLOTS = 8;
+    /**
+     * A buffer reference, a length, a line count and a trader index per slot, plus two lookup table entries.
+     */
+    private static final int SLOT_BYTES = 8 + 4 + 4 + 4 + 2 * 4;
+
+    private final TraderIdLookup traders;
+    private final MemoryBudget budget;
+    private int[] slotTraders = new int[0];
+    private byte[][] buffers = new byte[0][];
+    private int[] lengths = new int[0];
+    private int[] lineCounts = new int[0];
+    // Open addressing from trader index to slot + 1; zero marks an empty entry.
+    private int[] slotTable = new int[0];
+    private int slotCount;
+    private long reservedBytes;
+    private long byteCount;
+
+    public RoutedTradeBytes(TraderIdLookup traders) {
+        this(traders, MemoryBudget.unlimited());
+    }
+
+    public RoutedTradeBytes(TraderIdLookup traders, MemoryBudget budget) {
+        this.traders = traders;
+        this.budget = budget;
+    }
+
+    /**
+     * Appends {@code src[from, to)} followed by a newline to the buffer of the given trader, reserving any buffer
+     * growth whether or not the budget allows it.
+     */
+    public void appendLine(int trader, byte[] src, int from, int to) {
+        append(trader, src, from, to, true);
+    }
+
+    /**
+     * Appends like {@link #appendLine(int, byte[], int, int)} unless the buffer has to grow and the budget denies
+     * it.
+     *
+     * @return Whether the line was appended.
+     */
+    public boolean tryAppendLine(int trader, byte[] src, int from, int to) {
+        return append(trader, src, from, to, false);
+    }
+
+    public boolean isEmpty() {
+        return byteCount == 0;
+    }
+
+    /**
+     * The bytes of the lines held, newlines included.
+     */
+    public long byteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Calls {@code consumer} once for every trader that has at least one line, in the order of the requested
+     * traders.
+     */
+    public void forEachTrader(TraderConsumer consumer) throws IOException {
+        // Slots are few, so sorting them by trader index is cheap and keeps the order independent of the lines.
+        long[] order = new long[slotCount];
+        for (int slot = 0; slot < slotCount; slot++) {
+            order[slot] = (long) slotTraders[slot] << 32 | slot;
+        }
+        Arrays.sort(order);
+        for (long entry : order) {
+            int slot = (int) entry;
+            if (lineCounts[slot] == 0) {
+                // The slot was added but its first buffer was denied.
+                continue;
+            }
+            consumer.accept(traders.traderId(slotTraders[slot]), buffers[slot], lengths[slot], lineCounts[slot]);
+        }
+    }
+
+    /**
+     * Drops the buffers and gives their memory back to the budget.
+     */
+    public void release() {
+        slotTraders = new int[0];
+        buffers = new byte[0][];
+        lengths = new int[0];
+        lineCounts = new int[0];
+        slotTable = new int[0];
+        slotCount = 0;
+        budget.release(reservedBytes);
+        reservedBytes = 0;
+        byteCount = 0;
+    }
+
+    private boolean append(int trader, byte[] src, int from, int to, boolean force) {
+        int slot = slotOf(trader, force);
+        if (slot < 0) {
+            return false;
+        }
+        int length = to - from;
+        byte[] buffer = ensureCapacity(slot, lengths[slot] + length + 1, force);
+        if (buffer == null) {
+            return false;
+        }
+        System.arraycopy(src, from, buffer, lengths[slot], length);
+        buffer[lengths[slot] + length] = '\n';
+        lengths[slot] += length + 1;
+        lineCounts[slot]++;
+        byteCount += length + 1;
+        return true;
+    }
+
+    /**
+     * @return The slot of the trader, adding one if it has none, or -1 if growing the slots was denied.
+     */
+    private int slotOf(int trader, boolean force) {
+        int mask = slotTable.length - 1;
+        if (slotTable.length > 0) {
+            for (int entry = (trader * 0x9E3779B9) & mask; slotTable[entry] != 0; entry = (entry + 1) & mask) {
+                if (slotTraders[slotTable[entry] - 1] == trader) {
+                    return slotTable[entry] - 1;
+                }
+            }
+        }
+
+        if (slotCount == slotTraders.length) {
+            int newSlots = Math.max(INITIAL_SLOTS, slotTraders.length * 2);
+            if (!reserve((long) (newSlots - slotTraders.length) * SLOT_BYTES, force)) {
+                return -1;
+            }
+            slotTraders = Arrays.copyOf(slotTraders, newSlots);
+            buffers = Arrays.copyOf(buffers, newSlots);
+            lengths = Arrays.copyOf(lengths, newSlots);
+            lineCounts = Arrays.copyOf(lineCounts, newSlots);
+            slotTable = new int[newSlots * 2];
+            for (int slot = 0; slot < slotCount; slot++) {
+                insert(slot);
+            }
+        }
+        int slot = slotCount++;
+        slotTraders[slot] = trader;
+        insert(slot);
+        return slot;
+    }
+
+    private void insert(int slot) {
+        int mask = slotTable.length - 1;
+        int entry = (slotTraders[slot] * 0x9E3779B9) & mask;
+        while (slotTable[entry] != 0) {
+            entry = (entry + 1) & mask;
+        }
+        slotTable[entry] = slot + 1;
+    }
+
+    /**
+     * @return The slot's buffer with room for {@code required} bytes, or null if growing it was denied.
+     */
+    private byte[] ensureCapacity(int slot, int required, boolean force) {
+        byte[] buffer = buffers[slot];
+        int capacity = buffer == null ? 0 : buffer.length;
+        if (capacity >= required) {
+            return buffer;
+        }
+
+        int newCapacity = buffer == null ? Math.max(INITIAL_BUFFER_SIZE, required) : Math.max(capacity * 2, required);
+        if (!reserve(newCapacity - capacity, force)) {
+            return null;
+        }
+
+        buffer = buffer == null ? new byte[newCapacity] : Arrays.copyOf(buffer, newCapacity);
+        buffers[slot] = buffer;
+        return buffer;
+    }
+
+    private boolean reserve(long bytes, boolean force) {
+        if (force) {
+            budget.forceReserve(bytes);
+        } else if (!budget.tryReserve(bytes)) {
+            return false;
+        }
+        reservedBytes += bytes;
+        return true;
+    }
+
+    @FunctionalInterface
+    public interface TraderConsumer {
+        void accept(String traderId, byte[] data, int length, int lineCount) throws IOException;
+    }
+}
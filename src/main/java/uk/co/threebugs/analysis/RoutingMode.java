@@ -0,0 +1,15 @@
+package uk.co.threebugs.analysis;
+
+/**
+ * How decompressed trade lines are matched to traders.
+ */
+public enum RoutingMode {
+    /**
+     * Decode each line to a String and split it on commas.
+     */
+    LINES,
+    /**
+     * Scan the decompressed bytes for the traderId field and copy raw line bytes, without charset decoding.
+     */
+    BYTES
+}
@@ -1,21 +1,31 @@
 package uk.co.threebugs.analysis;
 
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 import lombok.extern.slf4j.Slf4j;
+import uk.co.threebugs.archive.ArchiveSettings;
+import uk.co.threebugs.archive.ArchiveWriter;
+import uk.co.threebugs.archive.ScenarioArchive;
+import uk.co.threebugs.pipeline.Channel;
+import uk.co.threebugs.pipeline.PipelineSettings;
+import uk.co.threebugs.pipeline.StagedPipeline;
+import uk.co.threebugs.s3.S3Access;
 
 @Slf4j
 public class S3ExtractsUploader {
@@ -23,64 +33,167 @@ public class S3ExtractsUploader {
     public static final String EXTRACTS_BUCKET = System.getenv("MOCHI_PROD_TRADE_EXTRACTS") != null ?
             System.getenv("MOCHI_PROD_TRADE_EXTRACTS") :
             "mochi-prod-trade-extracts";
+    public static final String FINGERPRINT_METADATA_KEY = "content-fingerprint";
+    private static final String FINGERPRINT_FILE_SUFFIX = ".fingerprint";
 
-    private final S3Client s3Client;
+    private final S3Access s3;
+    private final PipelineSettings settings;
+    private final ArchiveSettings archiveSettings;
+    private final boolean forceUpload;
 
-    public S3ExtractsUploader(S3Client s3Client) {
-        this.s3Client = s3Client;
+    /**
+     * @param s3 The S3 client and scheduler, started only when a scenario has to be checked or uploaded.
+     */
+    public S3ExtractsUploader(S3Access s3, PipelineSettings settings, ArchiveSettings archiveSettings, boolean forceUpload) {
+        this.s3 = s3;
+        this.settings = settings;
+        this.archiveSettings = archiveSettings;
+        this.forceUpload = forceUpload;
     }
 
     /**
-     * Compresses the provided scenario directory into a ZIP file and uploads the archive
-     * to the 'mochi-trade-extracts' bucket with the specified S3 key.
+     * Compresses the provided scenario directory into an archive and uploads it
+     * to the 'mochi-trade-extracts' bucket with the specified S3 key. The archive format and level are
+     * recorded in the object metadata.
+     * <p>
+     * The upload is skipped when the directory's {@link ScenarioFingerprint} matches the one recorded by the
+     * last upload, either in the local fingerprint file next to the directory or in the object metadata.
      *
      * @param scenarioDir The local directory containing the scenario files.
-     * @param s3Key       The S3 key to use when uploading the compressed ZIP.
+     * @param s3Key       The S3 key to use when uploading the archive.
+     * @throws IOException  If the scenario cannot be compressed or uploaded.
+     * @throws SdkException If an S3 request fails for a reason other than an I/O error.
      */
-    public void compressAndPushScenarioZip(Path scenarioDir, String s3Key) {
+    public void compressAndPushScenarioArchive(Path scenarioDir, String s3Key) throws IOException {
         if (!Files.isDirectory(scenarioDir)) {
             log.warn("Scenario directory does not exist or is not a directory: {}", scenarioDir);
             return;
         }
 
-        // Create a temporary file to hold the ZIP archive.
-        Path tempZip = null;
+        // Create a temporary file to hold the archive.
+        Path tempArchive = null;
         try {
-            tempZip = Files.createTempFile("scenario", ".zip");
-            compressDirectoryToZip(scenarioDir, tempZip);
-            log.info("Successfully compressed {} into temporary ZIP: {}", scenarioDir, tempZip);
+            String fingerprint = ScenarioFingerprint.compute(scenarioDir, archiveSettings);
+            if (!forceUpload && isUnchanged(scenarioDir, s3Key, fingerprint)) {
+                log.info("Scenario {} is unchanged since its last upload (fingerprint {}). Skipping upload.", scenarioDir, fingerprint);
+                return;
+            }
 
-            // Upload the compressed archive to S3.
-            PutObjectRequest putRequest = PutObjectRequest.builder()
-                    .bucket(EXTRACTS_BUCKET)
-                    .key(s3Key)
-                    .build();
+            tempArchive = Files.createTempFile("scenario", archiveSettings.extension());
+            compressDirectoryToArchive(scenarioDir, tempArchive);
+            log.info("Successfully compressed {} into temporary {} archive: {}", scenarioDir, archiveSettings.format().getId(), tempArchive);
 
-            s3Client.putObject(putRequest, RequestBody.fromFile(tempZip));
-            log.info("Uploaded compressed ZIP as key {} to bucket {}", s3Key, EXTRACTS_BUCKET);
-        } catch (IOException e) {
-            log.error("Error during ZIP compression/upload for directory {}: {}", scenarioDir, e.getMessage(), e);
+            // Upload the compressed archive to S3.
+            Map<String, String> metadata = new HashMap<>(archiveSettings.metadata());
+            metadata.put(FINGERPRINT_METADATA_KEY, fingerprint);
+            putArchive(tempArchive, s3Key, archiveSettings, metadata);
+            Files.writeString(fingerprintFile(scenarioDir), fingerprint, StandardCharsets.UTF_8);
         } finally {
-            // Clean up the temporary ZIP file.
-            if (tempZip != null) {
+            // Clean up the temporary archive.
+            if (tempArchive != null) {
                 try {
-                    Files.deleteIfExists(tempZip);
+                    Files.deleteIfExists(tempArchive);
                 } catch (IOException e) {
-                    log.warn("Could not delete temporary ZIP file {}: {}", tempZip, e.getMessage());
+                    log.warn("Could not delete temporary archive {}: {}", tempArchive, e.getMessage());
                 }
             }
         }
     }
 
+    /**
+     * Uploads a scenario archive that was written entry by entry while the scenario was converted, instead of
+     * being compressed from the scenario directory. There is no directory to fingerprint, so the upload is
+     * never skipped, whatever {@code forceUpload} says, and no fingerprint is recorded. The archive is finished before the upload and deleted afterwards.
+     *
+     * @param archive The scenario archive.
+     * @param s3Key   The S3 key to use when uploading the archive.
+     * @throws IOException If the archive cannot be finished or uploaded.
+     */
+    public void pushScenarioArchive(ScenarioArchive archive, String s3Key) throws IOException {
+        try {
+            archive.close();
+            putArchive(archive.file(), s3Key, archive.settings(), archive.settings().metadata());
+        } finally {
+            archive.delete();
+        }
+    }
+
+    private void putArchive(Path archive, String s3Key, ArchiveSettings settings, Map<String, String> metadata) throws IOException {
+        PutObjectRequest putRequest = PutObjectRequest.builder()
+                .bucket(EXTRACTS_BUCKET)
+                .key(s3Key)
+                .contentType(settings.format().getContentType())
+                .metadata(metadata)
+                .build();
+
+        s3.scheduler().execute("PutObject", () -> s3.client().putObject(putRequest, RequestBody.fromFile(archive)));
+        log.info("Uploaded compressed archive as key {} to bucket {}", s3Key, EXTRACTS_BUCKET);
+    }
+
+    /**
+     * The S3 key of a scenario archive: "backTestId/symbol/scenarioName" followed by the archive extension.
+     */
+    public String scenarioKey(String backTestId, String symbol, String scenarioName) {
+        return backTestId + "/" + symbol + "/" + scenarioName + archiveSettings.extension();
+    }
+
+    /**
+     * Checks the local fingerprint file first, then the metadata of the uploaded object. A match in S3 is
+     * copied to the local file so the next run does not need the HEAD request.
+     */
+    private boolean isUnchanged(Path scenarioDir, String s3Key, String fingerprint) throws IOException {
+        Path fingerprintFile = fingerprintFile(scenarioDir);
+        if (Files.exists(fingerprintFile) && Files.readString(fingerprintFile, StandardCharsets.UTF_8).trim().equals(fingerprint)) {
+            return true;
+        }
+
+        String uploadedFingerprint;
+        try {
+            HeadObjectRequest headRequest = HeadObjectRequest.builder()
+                    .bucket(EXTRACTS_BUCKET)
+                    .key(s3Key)
+                    .build();
+            HeadObjectResponse head = s3.scheduler().execute("HeadObject", () -> s3.client().headObject(headRequest));
+            uploadedFingerprint = head.metadata().get(FINGERPRINT_METADATA_KEY);
+        } catch (NoSuchKeyException e) {
+            return false;
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+
+        if (fingerprint.equals(uploadedFingerprint)) {
+            Files.writeString(fingerprintFile, fingerprint, StandardCharsets.UTF_8);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The local record of the last uploaded fingerprint, kept next to the scenario directory so it is not
+     * part of the archive.
+     */
+    private static Path fingerprintFile(Path scenarioDir) {
+        return scenarioDir.resolveSibling(scenarioDir.getFileName() + FINGERPRINT_FILE_SUFFIX);
+    }
+
     /**
      * Loops through all scenario directories in a given symbol directory, compressing and uploading each.
-     * The S3 key for each uploaded ZIP is in the format "symbol/scenarioName.zip",
-     * where "symbol" is the name of the symbol directory.
+     * The S3 key for each uploaded archive is in the format "symbol/scenarioName.zip" (or the extension of
+     * the configured archive format), where "symbol" is the name of the symbol directory. Up to the configured upload concurrency
+     * scenarios are compressed and uploaded at once, and scenarios that have not changed since their last
+     * upload are skipped.
+     * <p>
+     * A scenario whose upload fails does not stop the others. Failures are logged as they happen and reported
+     * together once every scenario has been tried.
      *
      * @param symbolDir  The parent directory representing a symbol that contains scenario subdirectories.
-     * @param backTestId
+     * @param backTestId The back test the scenarios belong to, the first part of each S3 key.
+     * @throws IOException If the scenarios cannot be listed or any scenario failed to upload.
      */
-    public void compressAndPushAllScenarios(Path symbolDir, String backTestId) {
+    public void compressAndPushAllScenarios(Path symbolDir, String backTestId) throws IOException {
         if (!Files.isDirectory(symbolDir)) {
             log.warn("Symbol directory does not exist or is not a directory: {}", symbolDir);
             return;
@@ -88,51 +201,45 @@ public class S3ExtractsUploader {
 
         // The symbol is taken as the name of the symbol directory.
         String symbol = symbolDir.getFileName().toString();
-        try (Stream<Path> scenarios = Files.list(symbolDir)) {
-            scenarios.filter(Files::isDirectory)
-                    .forEach(scenarioDir -> {
-                        String scenarioName = scenarioDir.getFileName().toString();
-                        // Create an S3 key that mirrors the directory structure: symbol/scenarioName.zip
-                        String s3Key = backTestId + "/" + symbol + "/" + scenarioName + ".zip";
-                        compressAndPushScenarioZip(scenarioDir, s3Key);
-                    });
-        } catch (IOException e) {
-            log.error("Error listing scenarios in symbol directory {}: {}", symbolDir, e.getMessage(), e);
+        Queue<String> failedScenarios = new ConcurrentLinkedQueue<>();
+        try (StagedPipeline pipeline = new StagedPipeline("upload " + symbol)) {
+            Channel<Path> scenarioDirs = pipeline.channel("scenarios", settings.queueCapacity());
+            pipeline.source("list", scenarioDirs, out -> {
+                try (Stream<Path> scenarios = Files.list(symbolDir)) {
+                    for (Path scenarioDir : scenarios.filter(Files::isDirectory).toList()) {
+                        out.emit(scenarioDir);
+                    }
+                }
+            });
+            pipeline.sink("upload", settings.uploadConcurrency(), scenarioDirs, scenarioDir -> {
+                String scenarioName = scenarioDir.getFileName().toString();
+                // Create an S3 key that mirrors the directory structure: symbol/scenarioName.zip
+                String s3Key = scenarioKey(backTestId, symbol, scenarioName);
+                try {
+                    compressAndPushScenarioArchive(scenarioDir, s3Key);
+                } catch (IOException | SdkException e) {
+                    log.error("Upload of scenario {} as {} failed: {}", scenarioDir, s3Key, e.getMessage(), e);
+                    failedScenarios.add(scenarioName);
+                }
+            });
+            pipeline.await();
+        }
+
+        if (!failedScenarios.isEmpty()) {
+            throw new IOException(failedScenarios.size() + " scenario uploads failed for " + symbolDir + ": " + failedScenarios);
         }
     }
 
     /**
-     * Compresses the given directory into a ZIP archive.
+     * Compresses the given directory into an archive using the configured format.
      *
-     * @param sourceDir The directory to compress.
-     * @param zipFile   The path of the resulting ZIP file.
+     * @param sourceDir   The directory to compress.
+     * @param archiveFile The path of the resulting archive.
      * @throws IOException if any I/O error occurs during compression.
      */
-    private void compressDirectoryToZip(Path sourceDir, Path zipFile) throws IOException {
-        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zipFile))) {
-            Files.walkFileTree(sourceDir, new SimpleFileVisitor<>() {
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    // Determine the relative path from the source directory
-                    Path relativePath = sourceDir.relativize(file);
-                    // Replace system-specific file separators with '/'
-                    String zipEntryName = relativePath.toString().replace(file.getFileSystem().getSeparator(), "/");
-                    ZipEntry zipEntry = new ZipEntry(zipEntryName);
-                    zos.putNextEntry(zipEntry);
-
-                    // Read the file and write to the ZIP output stream
-                    try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file.toFile()))) {
-                        byte[] buffer = new byte[4096];
-                        int len;
-                        while ((len = bis.read(buffer)) > 0) {
-                            zos.write(buffer, 0, len);
-                        }
-                    }
-
-                    zos.closeEntry();
-                    return FileVisitResult.CONTINUE;
-                }
-            });
+    private void compressDirectoryToArchive(Path sourceDir, Path archiveFile) throws IOException {
+        try (ArchiveWriter writer = archiveSettings.open(new BufferedOutputStream(Files.newOutputStream(archiveFile)))) {
+            writer.addDirectory(sourceDir);
         }
     }
-}
\ No newline at end of file
+}
@@ -3,16 +3,32 @@ package uk.co.threebugs.analysis;
 import lombok.extern.slf4j.Slf4j;
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
+import uk.co.threebugs.StartupClock;
+import uk.co.threebugs.csv.CsvLine;
+import uk.co.threebugs.pipeline.Channel;
+import uk.co.threebugs.pipeline.PipelineSettings;
+import uk.co.threebugs.pipeline.SequenceGate;
+import uk.co.threebugs.pipeline.StagedPipeline;
+import uk.co.threebugs.s3.S3RequestScheduler;
+import uk.co.threebugs.tradelog.SegmentedTradeLog;
+import uk.co.threebugs.tradelog.StorageLayout;
+import uk.co.threebugs.traderindex.TraderIndex;
+import uk.co.threebugs.traderindex.TraderIndexMode;
+import uk.co.threebugs.traderindex.TraderIndexStore;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.nio.file.StandardOpenOption.APPEND;
 import static java.nio.file.StandardOpenOption.CREATE;
@@ -21,13 +37,32 @@ import static java.nio.file.StandardOpenOption.CREATE;
 public class S3TradesProcessor {
 
     private static final String TRADES_BUCKET = System.getenv("MOCHI_TRADES_BUCKET") != null ? System.getenv("MOCHI_TRADES_BUCKET") : "mochi-prod-backtest-trades";
+    static final String TRADES_HEADER = "tradeId,traderId,timeToPlace,dayOfWeek,dayOfMonth,month,weekOfYear,placedDateTime,limitPrice,stopPrice,state,filledPrice,exitPrice,direction";
+    private static final byte[] TRADES_HEADER_LINE = (TRADES_HEADER + "\n").getBytes(StandardCharsets.UTF_8);
+    private static final Path LOCAL_TRADER_INDEX_DIR = Paths.get("output", ".trader-index");
 
     private final S3Client s3Client;
+    private final S3RequestScheduler s3Scheduler;
     private final FileHandler fileHandler;
+    private final TradeLineRouter tradeLineRouter;
+    private final PipelineSettings settings;
+    private final RoutingMode routingMode;
+    private final StorageLayout storageLayout;
+    private final TraderIndexStore traderIndexStore;
 
-    public S3TradesProcessor(S3Client s3Client) {
+    public S3TradesProcessor(S3Client s3Client, S3RequestScheduler s3Scheduler, PipelineSettings settings, RoutingMode routingMode, StorageLayout storageLayout, TraderIndexMode traderIndexMode) {
         this.s3Client = s3Client;
+        this.s3Scheduler = s3Scheduler;
         this.fileHandler = new FileHandler();
+        this.tradeLineRouter = new TradeLineRouter();
+        this.settings = settings;
+        this.routingMode = routingMode;
+        this.storageLayout = storageLayout;
+        this.traderIndexStore = switch (traderIndexMode) {
+            case OFF -> TraderIndexStore.none();
+            case LOCAL -> TraderIndexStore.directory(LOCAL_TRADER_INDEX_DIR);
+            case S3 -> TraderIndexStore.s3(s3Client, s3Scheduler, TRADES_BUCKET);
+        };
     }
 
     public void processTrades(String symbol, String scenario, Set<String> traderIds, String backTestId) throws IOException {
@@ -35,40 +70,160 @@ public class S3TradesProcessor {
         String prefix = scenario + "/";
 
         Path output = Paths.get("output", scenario, "raw");
+        Files.createDirectories(output);
+        TraderIdLookup traders = new TraderIdLookup(traderIds);
+
+        if (storageLayout == StorageLayout.SEGMENTED) {
+            SegmentedTradeLog tradeLog = SegmentedTradeLog.create(output, TRADES_HEADER, SegmentedTradeLog.DEFAULT_SEGMENT_SIZE);
+            try {
+                routeTrades(scenario, prefix, traders, (traderId, data, length, lineCount) -> tradeLog.append(traderId, data, 0, length));
+            } catch (IOException | RuntimeException e) {
+                tradeLog.abandon();
+                throw e;
+            }
+            tradeLog.close();
+            return;
+        }
+
+        routeTrades(scenario, prefix, traders, (traderId, data, length, lineCount) -> appendTrades(output, traderId, data, length, lineCount));
+        addHeaderToFiles(Arrays.stream(output.toFile().listFiles()).map(File::toPath).toList(), TRADES_HEADER);
+    }
+
+    /**
+     * Runs the list, download, decode and write stages for every trade object under {@code prefix}, handing
+     * each object's routed trades to {@code writer} in listing order. Objects whose trader index sidecar rules
+     * out every requested trader are not downloaded; objects without a current sidecar get one as they are
+     * decoded.
+     */
+    private void routeTrades(String scenario, String prefix, TraderIdLookup traders, RoutedTradeBytes.TraderConsumer writer) throws IOException {
+        AtomicInteger objectCount = new AtomicInteger();
+        AtomicInteger skippedCount = new AtomicInteger();
+        AtomicInteger indexedCount = new AtomicInteger();
+
+        // List -> download -> decode/route -> append run concurrently; the bounded channels between them
+        // cap the number of temp files and routed batches held at any time. Downloads and routed batches are
+        // passed on in listing order, so the object the writer needs next is always being decoded and the
+        // writer never holds batches of later objects.
+        SequenceGate downloadGate = new SequenceGate();
+        SequenceGate decodeGate = new SequenceGate();
+        try (StagedPipeline pipeline = new StagedPipeline("trades " + scenario)) {
+            Channel<TradeObject> objects = pipeline.channel("objects", settings.queueCapacity());
+            Channel<DownloadedObject> downloaded = pipeline.channel("downloaded", settings.queueCapacity());
+            Channel<RoutedTrades> routed = pipeline.channel("routed", settings.queueCapacity());
+
+            pipeline.source("list", objects, out -> listTradeObjects(prefix, out));
+            pipeline.stage("download", settings.downloadConcurrency(), objects, downloaded, (object, out) -> {
+                objectCount.incrementAndGet();
+                TraderIndex index = loadTraderIndex(object);
+                DownloadedObject downloadedObject;
+                if (index != null && !index.mightContainAny(traders.traderIds())) {
+                    log.info("Skipping trade file {}: none of its {} traders were requested", object.key(), index.traderCount());
+                    skippedCount.incrementAndGet();
+                    // Skipped objects still pass through so the writer sees every sequence number.
+                    downloadedObject = new DownloadedObject(object.sequence(), object.key(), object.eTag(), null, false);
+                } else {
+                    downloadedObject = download(object, index == null && traderIndexStore.enabled());
+                }
+                try {
+                    downloadGate.awaitTurn(object.sequence());
+                    out.emit(downloadedObject);
+                } catch (InterruptedIOException | InterruptedException e) {
+                    // The pipeline was cancelled, so no decode worker will delete the file.
+                    if (downloadedObject.file() != null) {
+                        Files.deleteIfExists(downloadedObject.file());
+                    }
+                    throw e;
+                }
+                downloadGate.advance(object.sequence());
+            });
+            pipeline.stage("decode", settings.decodeConcurrency(), downloaded, routed, (object, out) -> {
+                if (object.file() == null) {
+                    decodeGate.awaitTurn(object.sequence());
+                    out.emit(new RoutedTrades(object.sequence(), object.key(), new RoutedTradeBytes(traders), true));
+                    decodeGate.advance(object.sequence());
+                    return;
+                }
+                try {
+                    TraderIndex.Builder index = object.buildIndex() ? new TraderIndex.Builder() : null;
+                    // Once the memory budget is used up, later objects wait for their turn and the object whose
+                    // turn it is passes its batches on before it is fully decoded.
+                    RoutedTradeBatches batches = new RoutedTradeBatches(traders, settings.memoryBudget(), decodeGate, object.sequence(),
+                            batch -> emitBatch(out, new RoutedTrades(object.sequence(), object.key(), batch, false)));
+                    RoutedTradeBytes trades = routeTradeFile(object.file().toFile(), batches, index);
+                    if (index != null && saveTraderIndex(index.build(object.key(), object.eTag()))) {
+                        indexedCount.incrementAndGet();
+                    }
+                    if (batches.flushCount() > 0 || batches.waitCount() > 0) {
+                        log.info("Routed trade file {} in {} batches, waiting {} times for its turn, to stay within the memory budget",
+                                object.key(), batches.flushCount() + 1, batches.waitCount());
+                    }
+                    decodeGate.awaitTurn(object.sequence());
+                    out.emit(new RoutedTrades(object.sequence(), object.key(), trades, true));
+                    decodeGate.advance(object.sequence());
+                } finally {
+                    Files.deleteIfExists(object.file());
+                }
+            });
+            pipeline.sink("write", 1, routed, new OrderedTradeWriter(writer));
 
+            pipeline.await();
+        }
+        if (traderIndexStore.enabled()) {
+            log.info("Trader index for {}: skipped {} of {} trade objects, built {} sidecars", scenario, skippedCount.get(), objectCount.get(), indexedCount.get());
+        }
+    }
+
+    private static void emitBatch(StagedPipeline.Emitter<RoutedTrades> out, RoutedTrades batch) throws InterruptedIOException {
+        try {
+            out.emit(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while passing on routed trades of " + batch.key());
+        }
+    }
+
+    /**
+     * Loads the sidecar of an object. A sidecar that cannot be read only costs the download it would have saved,
+     * so read failures are logged and treated as a missing sidecar.
+     */
+    private TraderIndex loadTraderIndex(TradeObject object) {
+        try {
+            return traderIndexStore.load(object.key(), object.eTag());
+        } catch (IOException | SdkException e) {
+            log.warn("Could not load the trader index of {}: {}", object.key(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return Whether the sidecar was saved; a failed save is logged and the object is indexed again next time.
+     */
+    private boolean saveTraderIndex(TraderIndex index) {
+        try {
+            traderIndexStore.save(index);
+            return true;
+        } catch (IOException | SdkException e) {
+            log.warn("Could not save the trader index of {}: {}", index.objectKey(), e.getMessage());
+            return false;
+        }
+    }
+
+    private void listTradeObjects(String prefix, StagedPipeline.Emitter<TradeObject> out) throws IOException, InterruptedException {
         // List all objects under the prefix
         ListObjectsV2Request listRequest = ListObjectsV2Request.builder()
                 .bucket(TRADES_BUCKET)
                 .prefix(prefix)
                 .build();
 
+        long sequence = 0;
         ListObjectsV2Response listResponse;
         do {
-            listResponse = s3Client.listObjectsV2(listRequest);
+            ListObjectsV2Request pageRequest = listRequest;
+            listResponse = s3Scheduler.execute("ListObjectsV2", () -> s3Client.listObjectsV2(pageRequest));
 
-            // Process each object that ends with .lzo
             for (S3Object s3Object : listResponse.contents()) {
-                String key = s3Object.key();
-                if (key.endsWith(".lzo")) {
-                    try {
-                        GetObjectRequest request = GetObjectRequest.builder()
-                                .bucket(TRADES_BUCKET)
-                                .key(key)
-                                .build();
-
-                        ResponseInputStream<GetObjectResponse> response = s3Client.getObject(request);
-                        Path tempFile = Files.createTempFile("trade", ".lzo");
-                        Files.copy(response, tempFile, StandardCopyOption.REPLACE_EXISTING);
-                        log.info("Downloaded trade file: {} (temp: {})", key, tempFile);
-
-                        processTradeFile(tempFile.toFile(), traderIds, output);
-
-                        Files.deleteIfExists(tempFile);
-                    } catch (SdkClientException e) {
-                        log.error("Error while retrieving S3 object for key: {}", key, e);
-                    } catch (IOException e) {
-                        log.error("I/O error processing file {}: {}", key, e.getMessage(), e);
-                    }
+                if (s3Object.key().endsWith(".lzo")) {
+                    out.emit(new TradeObject(sequence++, s3Object.key(), s3Object.eTag()));
                 }
             }
 
@@ -80,16 +235,38 @@ public class S3TradesProcessor {
                     .build();
 
         } while (listResponse.isTruncated());
+    }
 
-        String header = "tradeId,traderId,timeToPlace,dayOfWeek,dayOfMonth,month,weekOfYear,placedDateTime,limitPrice,stopPrice,state,filledPrice,exitPrice,direction";
-        addHeaderToFiles(Arrays.stream(output.toFile().listFiles()).map(File::toPath).toList(), header);
+    private DownloadedObject download(TradeObject object, boolean buildIndex) throws IOException {
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(TRADES_BUCKET)
+                .key(object.key())
+                .build();
+
+        Path tempFile = Files.createTempFile("trade", ".lzo");
+        try {
+            s3Scheduler.execute("GetObject", () -> {
+                try (ResponseInputStream<GetObjectResponse> response = s3Client.getObject(request)) {
+                    return Files.copy(response, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+            });
+        } catch (SdkClientException | IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        log.info("Downloaded trade file: {} (temp: {})", object.key(), tempFile);
+        return new DownloadedObject(object.sequence(), object.key(), object.eTag(), tempFile, buildIndex);
     }
 
     public void addHeaderToFiles(Collection<Path> files, String header) throws IOException {
         for (Path file : files) {
-            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
-            // Check if the header is already present
-            if (lines.isEmpty() || !lines.getFirst().equals(header)) {
+            // Check if the header is already present; new trader files are created with it.
+            String firstLine;
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                firstLine = reader.readLine();
+            }
+            if (firstLine == null || !firstLine.equals(header)) {
+                List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
                 List<String> newLines = new ArrayList<>();
                 newLines.add(header);
                 newLines.addAll(lines);
@@ -99,73 +276,156 @@ public class S3TradesProcessor {
     }
 
     /**
-     * Decompresses and processes the trade file by filtering rows based on the provided traderIds.
-     * For each trader, the corresponding trade rows are written to a separate file under a directory
-     * structure based on the symbol and scenario.
+     * Decompresses the trade file and groups its rows by traderId, keeping only the requested traders.
      *
-     * @param file      The local file (already decompressed) to process.
-     * @param traderIds The set of trader IDs to include.
-     * @param outputDir The directory where the output files will be written, structured by traderId.
+     * @param file    The local LZO file to process.
+     * @param batches Receives the trade rows of the requested traders, flushing batches the budget cannot hold.
+     * @param index   Collects the traders of all rows for the object's sidecar; null to skip collecting.
+     * @return The last batch of trade rows, in file order.
      * @throws IOException If an I/O error occurs.
      */
-    private void processTradeFile(File file, Set<String> traderIds, Path outputDir) throws IOException {
-        // Map to collect trade lines grouped by traderId.
-        Map<String, List<String>> traderTrades = new HashMap<>();
+    private RoutedTradeBytes routeTradeFile(File file, RoutedTradeBatches batches, TraderIndex.Builder index) throws IOException {
+        if (routingMode == RoutingMode.BYTES) {
+            try (InputStream in = fileHandler.getInputStream(file)) {
+                return tradeLineRouter.route(in, batches, index);
+            }
+        }
 
         try (BufferedReader reader = fileHandler.getReader(file)) {
-            String line;
+            return routeLines(reader, batches, index);
+        }
+    }
 
-            String header = reader.readLine();
+    /**
+     * The {@link RoutingMode#LINES} counterpart of {@link TradeLineRouter#route(InputStream, RoutedTradeBatches, TraderIndex.Builder)}:
+     * reads the decompressed trade lines as Strings and routes them the same way.
+     *
+     * @param reader  The decompressed trade lines; the first line is the header.
+     * @param batches Receives the trade rows of the requested traders.
+     * @param index   Collects the traders of all rows; null to skip collecting.
+     * @return The last batch of trade rows, in file order.
+     * @throws IOException              If the lines cannot be read or a flush failed.
+     * @throws IllegalArgumentException If the header does not have traderId as its second column.
+     */
+    static RoutedTradeBytes routeLines(BufferedReader reader, RoutedTradeBatches batches, TraderIndex.Builder index) throws IOException {
+        TraderIdLookup traders = batches.traders();
+        CsvLine fields = new CsvLine();
 
-            String[] headerArray = header.split(",");
+        String line;
 
-            int traderIdIndex = 1;
+        String header = reader.readLine();
+        if (header == null) {
+            throw new IllegalArgumentException("Invalid header: trade file is empty");
+        }
 
-            if(!headerArray[traderIdIndex].trim().equalsIgnoreCase("traderid")) {
-                throw new IllegalArgumentException("Invalid header: " + header);
-            }
+        String[] headerArray = header.split(",");
 
-            while ((line = reader.readLine()) != null) {
+        int traderIdIndex = 1;
 
-                if (line.trim().isEmpty()) {
-                    continue;
-                }
+        if (headerArray.length <= traderIdIndex || !headerArray[traderIdIndex].trim().equalsIgnoreCase("traderid")) {
+            throw new IllegalArgumentException("Invalid header: " + header);
+        }
 
-                // Split the line on commas; the first token is the traderId.
-                String[] tokens = line.split(",");
-                if (tokens.length < 1) {
-                    continue;
-                }
-                String traderId = tokens[traderIdIndex].trim();
+        boolean recordSeen = false;
+        while ((line = reader.readLine()) != null) {
+            if (!recordSeen) {
+                StartupClock.firstRecord("decode");
+                recordSeen = true;
+            }
 
-                // Only include trades for the specified traderIds.
-                if (traderIds.contains(traderId)) {
-                    traderTrades.computeIfAbsent(traderId, k -> new ArrayList<>()).add(line);
-                }
+            if (line.trim().isEmpty()) {
+                continue;
             }
 
-            // Prepare output directory based on symbol and scenario.
-            if (!Files.exists(outputDir)) {
-                Files.createDirectories(outputDir);
+            // Split the line on commas; rows too short to hold a traderId are skipped, as the byte router does.
+            fields.reset(line);
+            if (fields.fieldCount() <= traderIdIndex) {
+                continue;
+            }
+            String traderId = fields.trimmedField(traderIdIndex);
+            if (index != null) {
+                index.addLine(traderId);
             }
 
-            // Inside processTradeFile, after collecting trades for each trader:
-            for (Map.Entry<String, List<String>> entry : traderTrades.entrySet()) {
-                String traderId = entry.getKey();
-                List<String> trades = entry.getValue();
-                Path traderFile = outputDir.resolve(traderId + ".csv");
-
-                // Open the file in append mode, creating it if it doesn't exist.
-                try (BufferedWriter writer = Files.newBufferedWriter(traderFile, StandardCharsets.UTF_8, CREATE, APPEND)) {
-                    for (String trade : trades) {
-                        writer.write(trade);
-                        writer.newLine();
-                    }
-                }
+            // Only include trades for the specified traderIds.
+            int trader = traders.indexOf(traderId);
+            if (trader >= 0) {
+                byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                batches.appendLine(trader, bytes, 0, bytes.length);
+            }
+        }
+        return batches.finish();
+    }
 
-                log.info("Appended {} trades for trader {} to file {}", trades.size(), traderId, traderFile);
+    /**
+     * Appends one trader's routed trade rows to its file under {@code outputDir}. A new trader file starts with
+     * the trades header.
+     *
+     * @param outputDir The directory where the output files will be written, structured by traderId.
+     * @param traderId  The trader.
+     * @param data      The trade rows, newline-terminated.
+     * @param length    The number of bytes of {@code data} to append.
+     * @param lineCount The number of rows.
+     * @throws IOException If an I/O error occurs.
+     */
+    static void appendTrades(Path outputDir, String traderId, byte[] data, int length, int lineCount) throws IOException {
+        Path traderFile = outputDir.resolve(traderId + ".csv");
+        boolean newFile = Files.notExists(traderFile);
+
+        // Open the file in append mode, creating it if it doesn't exist.
+        try (OutputStream out = Files.newOutputStream(traderFile, CREATE, APPEND)) {
+            if (newFile) {
+                out.write(TRADES_HEADER_LINE);
             }
+            out.write(data, 0, length);
+        }
+
+        log.info("Appended {} trades for trader {} to file {}", lineCount, traderId, traderFile);
+    }
+
+    /**
+     * Hands routed objects to the writer. The decode stage passes them on in listing order, so each trader has
+     * the same row order as a sequential run regardless of which decode worker finished first. An object may
+     * arrive in several batches, in order, the last one marked {@code last}. Each batch gives its memory back to
+     * the budget once written.
+     */
+    private static class OrderedTradeWriter implements StagedPipeline.Sink<RoutedTrades> {
 
+        private final RoutedTradeBytes.TraderConsumer writer;
+        private long nextSequence;
+
+        OrderedTradeWriter(RoutedTradeBytes.TraderConsumer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void accept(RoutedTrades routedTrades) throws IOException {
+            if (routedTrades.sequence() != nextSequence) {
+                routedTrades.trades().release();
+                throw new IllegalStateException("Routed trades of object " + routedTrades.sequence() + " (" + routedTrades.key()
+                        + ") arrived before object " + nextSequence);
+            }
+            routedTrades.trades().forEachTrader(writer);
+            routedTrades.trades().release();
+            if (routedTrades.last()) {
+                nextSequence++;
+            }
         }
     }
-}
\ No newline at end of file
+
+    private record TradeObject(long sequence, String key, String eTag) {
+    }
+
+    /**
+     * @param file       The downloaded object, or null if its sidecar showed it holds none of the traders.
+     * @param buildIndex Whether to build a sidecar while decoding the object.
+     */
+    private record DownloadedObject(long sequence, String key, String eTag, Path file, boolean buildIndex) {
+    }
+
+    /**
+     * @param last Whether this is the last batch of the object.
+     */
+    private record RoutedTrades(long sequence, String key, RoutedTradeBytes trades, boolean last) {
+    }
+}
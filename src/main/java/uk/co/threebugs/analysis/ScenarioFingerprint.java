@@ -0,0 +1,55 @@
+package uk.co.threebugs.analysis;
+
+import uk.co.threebugs.archive.ArchiveSettings;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A content fingerprint of a scenario directory: a SHA-256 over the relative path, size and modification
+ * time of every file, plus the archive settings. File contents are not read, so computing it costs one
+ * directory walk.
+ */
+public final class ScenarioFingerprint {
+
+    private ScenarioFingerprint() {
+    }
+
+    /**
+     * @param scenarioDir     The scenario directory.
+     * @param archiveSettings The settings the archive is built with; changing them changes the fingerprint.
+     * @return The fingerprint as a lowercase hex string.
+     */
+    public static String compute(Path scenarioDir, ArchiveSettings archiveSettings) throws IOException {
+        MessageDigest digest = sha256();
+        digest.update((archiveSettings.format().getId() + "\0" + archiveSettings.level() + "\n").getBytes(StandardCharsets.UTF_8));
+
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(scenarioDir)) {
+            files = paths.filter(Files::isRegularFile).sorted().toList();
+        }
+        for (Path file : files) {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            String relativePath = scenarioDir.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+            String record = relativePath + "\0" + attrs.size() + "\0" + attrs.lastModifiedTime().toMillis() + "\n";
+            digest.update(record.getBytes(StandardCharsets.UTF_8));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
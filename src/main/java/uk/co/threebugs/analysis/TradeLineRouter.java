@@ -0,0 +1,175 @@
+package uk.co.threebugs.analysis;
+
+import uk.co.threebugs.StartupClock;
+import uk.co.threebugs.csv.CsvScanner;
+import uk.co.threebugs.memory.MemoryBudget;
+import uk.co.threebugs.traderindex.TraderIndex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Routes decompressed trade lines to traders at the byte level. Lines are found by scanning for newlines,
+ * the traderId is the slice between the first and second comma, and matching lines are copied verbatim
+ * into the trader's buffer. No charset decoding or String creation happens per line. Newlines and commas are
+ * found with the shared {@link CsvScanner}.
+ */
+public class TradeLineRouter {
+
+    private static final int TRADER_ID_FIELD = 1;
+    private static final int INITIAL_BUFFER_SIZE = 1 << 16;
+
+    private final CsvScanner scanner = CsvScanner.get();
+
+    /**
+     * Reads every line of {@code in} and keeps the ones belonging to the requested traders.
+     *
+     * @param in      The decompressed trade stream; the first line is the header.
+     * @param traders The requested traders.
+     * @return The matching lines grouped by trader.
+     * @throws IOException              If the stream cannot be read.
+     * @throws IllegalArgumentException If the header does not have traderId as its second column.
+     */
+    public RoutedTradeBytes route(InputStream in, TraderIdLookup traders) throws IOException {
+        return route(in, traders, null);
+    }
+
+    /**
+     * Reads every line of {@code in}, keeps the ones belonging to the requested traders, and records the
+     * trader of every line in {@code index}.
+     *
+     * @param in      The decompressed trade stream; the first line is the header.
+     * @param traders The requested traders.
+     * @param index   Collects the traders of all lines, requested or not; null to skip collecting.
+     * @return The matching lines grouped by trader.
+     * @throws IOException              If the stream cannot be read.
+     * @throws IllegalArgumentException If the header does not have traderId as its second column.
+     */
+    public RoutedTradeBytes route(InputStream in, TraderIdLookup traders, TraderIndex.Builder index) throws IOException {
+        return route(in, new RoutedTradeBatches(traders, MemoryBudget.unlimited(), batch -> {
+            throw new IllegalStateException("An unlimited budget never flushes");
+        }), index);
+    }
+
+    /**
+     * Reads every line of {@code in} into {@code batches}, which flushes a batch whenever the memory budget
+     * denies it more room.
+     *
+     * @param in      The decompressed trade stream; the first line is the header.
+     * @param batches Receives the lines of the requested traders.
+     * @param index   Collects the traders of all lines, requested or not; null to skip collecting.
+     * @return The last batch, holding the lines routed since the last flush.
+     * @throws IOException              If the stream cannot be read or a flush failed.
+     * @throws IllegalArgumentException If the header does not have traderId as its second column.
+     */
+    public RoutedTradeBytes route(InputStream in, RoutedTradeBatches batches, TraderIndex.Builder index) throws IOException {
+        TraderIdLookup traders = batches.traders();
+        byte[] buf = new byte[INITIAL_BUFFER_SIZE];
+        int end = 0;
+        boolean headerSeen = false;
+        boolean recordSeen = false;
+
+        int read;
+        while ((read = in.read(buf, end, buf.length - end)) != -1) {
+            end += read;
+
+            int pos = 0;
+            int newline;
+            while ((newline = indexOf(buf, pos, end, (byte) '\n')) >= 0) {
+                if (headerSeen) {
+                    if (!recordSeen) {
+                        StartupClock.firstRecord("decode");
+                        recordSeen = true;
+                    }
+                    routeLine(buf, pos, newline, traders, batches, index);
+                } else {
+                    validateHeader(buf, pos, newline);
+                    headerSeen = true;
+                }
+                pos = newline + 1;
+            }
+
+            // Keep the partial last line at the start of the buffer, growing it if a single line fills it.
+            end -= pos;
+            System.arraycopy(buf, pos, buf, 0, end);
+            if (end == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+        }
+
+        if (end > 0) {
+            if (headerSeen) {
+                StartupClock.firstRecord("decode");
+                routeLine(buf, 0, end, traders, batches, index);
+            } else {
+                validateHeader(buf, 0, end);
+            }
+        } else if (!headerSeen) {
+            throw new IllegalArgumentException("Invalid header: trade file is empty");
+        }
+        return batches.finish();
+    }
+
+    private void routeLine(byte[] buf, int from, int to, TraderIdLookup traders, RoutedTradeBatches batches, TraderIndex.Builder index) throws IOException {
+        int lineEnd = stripCarriageReturn(buf, from, to);
+        if (isBlank(buf, from, lineEnd)) {
+            return;
+        }
+
+        int fieldStart = from;
+        for (int field = 0; field < TRADER_ID_FIELD; field++) {
+            int comma = indexOf(buf, fieldStart, lineEnd, (byte) ',');
+            if (comma < 0) {
+                return;
+            }
+            fieldStart = comma + 1;
+        }
+        int fieldEnd = indexOf(buf, fieldStart, lineEnd, (byte) ',');
+        if (fieldEnd < 0) {
+            fieldEnd = lineEnd;
+        }
+
+        // Trim the same characters as String.trim().
+        while (fieldStart < fieldEnd && (buf[fieldStart] & 0xff) <= ' ') {
+            fieldStart++;
+        }
+        while (fieldEnd > fieldStart && (buf[fieldEnd - 1] & 0xff) <= ' ') {
+            fieldEnd--;
+        }
+
+        if (index != null) {
+            index.addLine(buf, fieldStart, fieldEnd);
+        }
+        int trader = traders.indexOf(buf, fieldStart, fieldEnd);
+        if (trader >= 0) {
+            batches.appendLine(trader, buf, from, lineEnd);
+        }
+    }
+
+    private void validateHeader(byte[] buf, int from, int to) {
+        String header = new String(buf, from, stripCarriageReturn(buf, from, to) - from, StandardCharsets.UTF_8);
+        String[] headerArray = header.split(",");
+        if (headerArray.length <= TRADER_ID_FIELD || !headerArray[TRADER_ID_FIELD].trim().equalsIgnoreCase("traderid")) {
+            throw new IllegalArgumentException("Invalid header: " + header);
+        }
+    }
+
+    private static int stripCarriageReturn(byte[] buf, int from, int to) {
+        return to > from && buf[to - 1] == '\r' ? to - 1 : to;
+    }
+
+    private static boolean isBlank(byte[] buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if ((buf[i] & 0xff) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(byte[] buf, int from, int to, byte target) {
+        return scanner.indexOf(buf, from, to, target);
+    }
+}
@@ -0,0 +1,95 @@
+package uk.co.threebugs.analysis;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the requested trader IDs to dense indices, and finds a trader from a UTF-8 byte slice without
+ * creating a String. Lookups use open addressing over the encoded IDs.
+ */
+public class TraderIdLookup {
+
+    private final List<String> traderIds;
+    private final Map<String, Integer> indexById;
+    private final byte[][] keys;
+    private final int[] slots;
+    private final int mask;
+
+    public TraderIdLookup(Collection<String> traderIds) {
+        this.traderIds = new ArrayList<>(traderIds);
+        this.indexById = new HashMap<>();
+        this.keys = new byte[this.traderIds.size()][];
+
+        int capacity = Integer.highestOneBit(Math.max(4, this.traderIds.size() * 2 - 1)) << 1;
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+
+        for (int i = 0; i < this.traderIds.size(); i++) {
+            String traderId = this.traderIds.get(i);
+            indexById.put(traderId, i);
+            keys[i] = traderId.getBytes(StandardCharsets.UTF_8);
+            int slot = hash(keys[i], 0, keys[i].length) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            // Slots hold index + 1 so that zero marks an empty slot.
+            slots[slot] = i + 1;
+        }
+    }
+
+    public int size() {
+        return traderIds.size();
+    }
+
+    public String traderId(int index) {
+        return traderIds.get(index);
+    }
+
+    /**
+     * The requested traders, in index order.
+     */
+    public List<String> traderIds() {
+        return Collections.unmodifiableList(traderIds);
+    }
+
+    /**
+     * @return The index of the trader, or -1 if it was not requested.
+     */
+    public int indexOf(String traderId) {
+        Integer index = indexById.get(traderId);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Finds the trader whose UTF-8 encoded ID equals {@code buf[from, to)}.
+     *
+     * @return The index of the trader, or -1 if it was not requested.
+     */
+    public int indexOf(byte[] buf, int from, int to) {
+        int slot = hash(buf, from, to) & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            byte[] key = keys[entry - 1];
+            if (Arrays.equals(key, 0, key.length, buf, from, to)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    static int hash(byte[] buf, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + buf[i];
+        }
+        // Spread the high bits so that short numeric IDs do not cluster in the low slots.
+        return h ^ (h >>> 16);
+    }
+}
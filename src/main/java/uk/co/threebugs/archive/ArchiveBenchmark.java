@@ -0,0 +1,91 @@
+package uk.co.threebugs.archive;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Compresses a scenario directory with each archive format at a range of levels and reports the archive
+ * size and the time taken, so a deployment can pick its CPU-versus-bandwidth tradeoff.
+ *
+ * <pre>java -cp app.jar uk.co.threebugs.archive.ArchiveBenchmark &lt;scenarioDir&gt; [zstdWorkers]</pre>
+ */
+@Slf4j
+public class ArchiveBenchmark {
+
+    private static final List<ArchiveSettings> CANDIDATES = List.of(
+            ArchiveSettings.of(ArchiveFormat.ZIP, 0, 0),
+            ArchiveSettings.of(ArchiveFormat.ZIP, 1, 0),
+            ArchiveSettings.of(ArchiveFormat.ZIP, 6, 0),
+            ArchiveSettings.of(ArchiveFormat.ZIP, 9, 0),
+            ArchiveSettings.of(ArchiveFormat.TAR_ZSTD, 1, 0),
+            ArchiveSettings.of(ArchiveFormat.TAR_ZSTD, 3, 0),
+            ArchiveSettings.of(ArchiveFormat.TAR_ZSTD, 9, 0),
+            ArchiveSettings.of(ArchiveFormat.TAR_ZSTD, 19, 0),
+            ArchiveSettings.of(ArchiveFormat.TAR_LZ4, 0, 0),
+            ArchiveSettings.of(ArchiveFormat.TAR_LZ4, 9, 0));
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ArchiveBenchmark <scenarioDir> [zstdWorkers]");
+            System.exit(1);
+        }
+        Path scenarioDir = Paths.get(args[0]);
+        int zstdWorkers = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        if (!Files.isDirectory(scenarioDir)) {
+            throw new IllegalArgumentException("Scenario directory does not exist: " + scenarioDir.toAbsolutePath());
+        }
+
+        long inputBytes;
+        try (var files = Files.walk(scenarioDir)) {
+            inputBytes = files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+        log.info("Benchmarking archive formats on {} ({} bytes)", scenarioDir.toAbsolutePath(), inputBytes);
+
+        for (ArchiveSettings candidate : CANDIDATES) {
+            ArchiveSettings settings = candidate.format() == ArchiveFormat.TAR_ZSTD
+                    ? new ArchiveSettings(candidate.format(), candidate.level(), zstdWorkers)
+                    : candidate;
+            Result result = run(settings, scenarioDir);
+            log.info("{} level {}: {} bytes ({}% of input) in {} ms, {} MB/s",
+                    settings.format().getId(), settings.level(), result.bytes(),
+                    String.format("%.1f", 100.0 * result.bytes() / Math.max(1, inputBytes)),
+                    result.millis(),
+                    String.format("%.1f", inputBytes / 1048.576 / Math.max(1, result.millis())));
+        }
+    }
+
+    private static Result run(ArchiveSettings settings, Path scenarioDir) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream();
+        long start = System.nanoTime();
+        try (ArchiveWriter writer = settings.open(counter)) {
+            writer.addDirectory(scenarioDir);
+        }
+        return new Result(counter.count, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private record Result(long bytes, long millis) {
+    }
+
+    /**
+     * Discards the archive and counts its size, so disk speed does not skew the timings.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package uk.co.threebugs.archive;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The container and codec used for scenario extracts.
+ */
+public enum ArchiveFormat {
+    ZIP("zip", ".zip", "application/zip", -1),
+    TAR_ZSTD("tar.zst", ".tar.zst", "application/zstd", 3),
+    TAR_LZ4("tar.lz4", ".tar.lz4", "application/x-lz4", 0);
+
+    private final String id;
+    private final String extension;
+    private final String contentType;
+    private final int defaultLevel;
+
+    ArchiveFormat(String id, String extension, String contentType, int defaultLevel) {
+        this.id = id;
+        this.extension = extension;
+        this.contentType = contentType;
+        this.defaultLevel = defaultLevel;
+    }
+
+    /**
+     * The name recorded in object metadata, e.g. {@code tar.zst}.
+     */
+    public String getId() {
+        return id;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * The level used when none is configured: the Deflater default for ZIP, zstd's default of 3, and the
+     * fast (non-HC) compressor for LZ4.
+     */
+    public int getDefaultLevel() {
+        return defaultLevel;
+    }
+
+    public static ArchiveFormat fromId(String id) {
+        return Arrays.stream(values())
+                .filter(format -> format.id.equals(id.toLowerCase(Locale.ROOT)))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown archive format: " + id));
+    }
+}
@@ -0,0 +1,68 @@
+package uk.co.threebugs.archive;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * The archive format and compression settings for scenario extracts.
+ *
+ * @param format  The container and codec.
+ * @param level   The compression level. For ZIP, 0 stores entries uncompressed and 1-9 are Deflater levels;
+ *                for zstd, 1-22; for LZ4, 0 is the fast compressor and 1-17 are HC levels.
+ * @param workers The number of zstd worker threads; 0 compresses on the calling thread. Ignored by ZIP and LZ4.
+ */
+public record ArchiveSettings(ArchiveFormat format, int level, int workers) {
+
+    public static final String FORMAT_METADATA_KEY = "archive-format";
+    public static final String LEVEL_METADATA_KEY = "archive-level";
+
+    public static ArchiveSettings defaults() {
+        return of(ArchiveFormat.ZIP, null, 0);
+    }
+
+    /**
+     * Creates settings for {@code format}, falling back to its default level when {@code level} is null.
+     */
+    public static ArchiveSettings of(ArchiveFormat format, Integer level, int workers) {
+        return new ArchiveSettings(format, level != null ? level : format.getDefaultLevel(), workers);
+    }
+
+    /**
+     * Starts an archive that writes to {@code out}. Closing the writer closes {@code out}.
+     */
+    public ArchiveWriter open(OutputStream out) throws IOException {
+        return switch (format) {
+            case ZIP -> new ZipArchiveWriter(out, level);
+            case TAR_ZSTD -> {
+                ZstdOutputStream zstd = new ZstdOutputStream(out, level);
+                if (workers > 0) {
+                    zstd.setWorkers(workers);
+                }
+                yield new TarArchiveWriter(zstd);
+            }
+            case TAR_LZ4 -> new TarArchiveWriter(new LZ4FrameOutputStream(out,
+                    LZ4FrameOutputStream.BLOCKSIZE.SIZE_4MB,
+                    -1L,
+                    level > 0 ? LZ4Factory.fastestInstance().highCompressor(level) : LZ4Factory.fastestInstance().fastCompressor(),
+                    XXHashFactory.fastestInstance().hash32(),
+                    LZ4FrameOutputStream.FLG.Bits.BLOCK_INDEPENDENCE));
+        };
+    }
+
+    public String extension() {
+        return format.getExtension();
+    }
+
+    /**
+     * The object metadata that tells consumers which decoder to use.
+     */
+    public Map<String, String> metadata() {
+        return Map.of(FORMAT_METADATA_KEY, format.getId(), LEVEL_METADATA_KEY, String.valueOf(level));
+    }
+}
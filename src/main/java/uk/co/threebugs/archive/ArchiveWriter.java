@@ -0,0 +1,78 @@
+package uk.co.threebugs.archive;
+
+import uk.co.threebugs.tradelog.SegmentedTradeLog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Writes named entries into an archive stream. Entry names use '/' as the separator.
+ */
+public interface ArchiveWriter extends Closeable {
+
+    /**
+     * Adds the content of a local file as an entry.
+     */
+    void addFile(String entryName, Path file) throws IOException;
+
+    /**
+     * Adds {@code content[offset, offset + length)} as an entry.
+     */
+    void addBytes(String entryName, byte[] content, int offset, int length) throws IOException;
+
+    /**
+     * Adds every file under {@code sourceDir}, named by its path relative to {@code sourceDir}.
+     */
+    default void addDirectory(Path sourceDir) throws IOException {
+        addDirectory("", sourceDir);
+    }
+
+    /**
+     * Adds every file under {@code sourceDir}, named by {@code prefix} followed by its path relative to
+     * {@code sourceDir}. A directory holding a segmented trade log is added as one {@code <traderId>.csv} entry
+     * per trader, the layout consumers of the archive expect, instead of its segment and index files.
+     */
+    default void addDirectory(String prefix, Path sourceDir) throws IOException {
+        Files.walkFileTree(sourceDir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!SegmentedTradeLog.exists(dir)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                addTradeLog(entryName(dir) + (dir.equals(sourceDir) ? "" : "/"), dir);
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                addFile(entryName(file), file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            private String entryName(Path path) {
+                // Replace system-specific file separators with '/'
+                return prefix + sourceDir.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+            }
+        });
+    }
+
+    /**
+     * Adds each trader of the segmented trade log in {@code logDir} as {@code prefix + traderId + ".csv"}.
+     */
+    default void addTradeLog(String prefix, Path logDir) throws IOException {
+        Path traderFile = Files.createTempFile("trader", ".csv");
+        try (SegmentedTradeLog tradeLog = SegmentedTradeLog.open(logDir)) {
+            for (String traderId : tradeLog.traderIds()) {
+                tradeLog.exportTrader(traderId, traderFile);
+                addFile(prefix + traderId + ".csv", traderFile);
+            }
+        } finally {
+            Files.deleteIfExists(traderFile);
+        }
+    }
+}
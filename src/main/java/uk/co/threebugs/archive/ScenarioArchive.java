@@ -0,0 +1,79 @@
+package uk.co.threebugs.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A scenario archive that is built entry by entry in a temporary file, for producers that write their output
+ * straight into the archive instead of into the scenario directory. Entries may be added from several threads.
+ */
+public final class ScenarioArchive implements Closeable {
+
+    private final ArchiveSettings settings;
+    private final Path file;
+    private final ArchiveWriter writer;
+    private boolean closed;
+
+    private ScenarioArchive(ArchiveSettings settings, Path file, ArchiveWriter writer) {
+        this.settings = settings;
+        this.file = file;
+        this.writer = writer;
+    }
+
+    public static ScenarioArchive create(ArchiveSettings settings) throws IOException {
+        Path file = Files.createTempFile("scenario", settings.extension());
+        // Removed by delete() after the upload; this covers runs that fail before it.
+        file.toFile().deleteOnExit();
+        try {
+            return new ScenarioArchive(settings, file, settings.open(new BufferedOutputStream(Files.newOutputStream(file))));
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    public synchronized void addBytes(String entryName, byte[] content) throws IOException {
+        writer.addBytes(entryName, content, 0, content.length);
+    }
+
+    public synchronized void addFile(String entryName, Path file) throws IOException {
+        writer.addFile(entryName, file);
+    }
+
+    public synchronized void addDirectory(String prefix, Path sourceDir) throws IOException {
+        writer.addDirectory(prefix, sourceDir);
+    }
+
+    public ArchiveSettings settings() {
+        return settings;
+    }
+
+    /**
+     * The archive file. It is complete only after {@link #close()}.
+     */
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * Finishes the archive. The file is kept until {@link #delete()}.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            writer.close();
+        }
+    }
+
+    public void delete() throws IOException {
+        try {
+            close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package uk.co.threebugs.archive;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes a tar stream into an already-compressing output stream.
+ */
+class TarArchiveWriter implements ArchiveWriter {
+
+    private final TarArchiveOutputStream tar;
+
+    TarArchiveWriter(OutputStream compressed) {
+        this.tar = new TarArchiveOutputStream(compressed);
+        // Scenario names are far longer than the 100 characters of a classic tar header.
+        tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+    }
+
+    @Override
+    public void addFile(String entryName, Path file) throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(entryName);
+        entry.setSize(Files.size(file));
+        entry.setModTime(Files.getLastModifiedTime(file));
+        tar.putArchiveEntry(entry);
+        Files.copy(file, tar);
+        tar.closeArchiveEntry();
+    }
+
+    @Override
+    public void addBytes(String entryName, byte[] content, int offset, int length) throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(entryName);
+        entry.setSize(length);
+        tar.putArchiveEntry(entry);
+        tar.write(content, offset, length);
+        tar.closeArchiveEntry();
+    }
+
+    @Override
+    public void close() throws IOException {
+        tar.finish();
+        tar.close();
+    }
+}
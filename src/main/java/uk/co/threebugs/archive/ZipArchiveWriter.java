@@ -0,0 +1,75 @@
+package uk.co.threebugs.archive;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a ZIP archive. Level 0 writes STORED entries, which need their CRC and size before the entry
+ * starts, so stored files are read twice.
+ */
+class ZipArchiveWriter implements ArchiveWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ZipOutputStream zos;
+    private final boolean store;
+
+    ZipArchiveWriter(OutputStream out, int level) {
+        this.zos = new ZipOutputStream(out);
+        this.store = level == 0;
+        if (!store) {
+            zos.setLevel(level);
+        }
+    }
+
+    @Override
+    public void addFile(String entryName, Path file) throws IOException {
+        ZipEntry zipEntry = new ZipEntry(entryName);
+        if (store) {
+            CRC32 crc = new CRC32();
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int len;
+                while ((len = in.read(buffer)) > 0) {
+                    crc.update(buffer, 0, len);
+                }
+            }
+            markStored(zipEntry, Files.size(file), crc.getValue());
+        }
+        zos.putNextEntry(zipEntry);
+        Files.copy(file, zos);
+        zos.closeEntry();
+    }
+
+    @Override
+    public void addBytes(String entryName, byte[] content, int offset, int length) throws IOException {
+        ZipEntry zipEntry = new ZipEntry(entryName);
+        if (store) {
+            CRC32 crc = new CRC32();
+            crc.update(content, offset, length);
+            markStored(zipEntry, length, crc.getValue());
+        }
+        zos.putNextEntry(zipEntry);
+        zos.write(content, offset, length);
+        zos.closeEntry();
+    }
+
+    @Override
+    public void close() throws IOException {
+        zos.close();
+    }
+
+    private static void markStored(ZipEntry zipEntry, long size, long crc) {
+        zipEntry.setMethod(ZipEntry.STORED);
+        zipEntry.setSize(size);
+        zipEntry.setCompressedSize(size);
+        zipEntry.setCrc(crc);
+    }
+}
@@ -0,0 +1,128 @@
+package uk.co.threebugs.conversion;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reduces an equity curve to a fixed number of points while it is being computed. The first and last points
+ * are always kept, so the curve starts and ends at the real equity. The points in between are split into
+ * buckets of consecutive trades and only the lowest and highest running total of each bucket are kept, in
+ * trade order, so peaks and drawdowns survive at any chart width.
+ */
+class EquityCurveDownsampler {
+
+    static final String HEADER = "PlaceDateTime,RunningTotalProfit";
+
+    private final List<Point> points = new ArrayList<>();
+    private final long totalPoints;
+    private final boolean keepAll;
+    private final boolean keepFirst;
+    private final int bucketCount;
+
+    private int index;
+    private String lastPlaceDateTime;
+    private int lastRunningTotal;
+    private boolean finished;
+    private int bucket = -1;
+    private Point min;
+    private Point max;
+    private int minIndex;
+    private int maxIndex;
+
+    /**
+     * @param totalPoints The number of points that will be added, or an upper bound on it.
+     * @param pointBudget The most points to keep; 0 or less keeps every point. A budget of 1 keeps only the
+     *                    last point, and budgets of 2 or 3 keep the first and last.
+     */
+    EquityCurveDownsampler(int totalPoints, int pointBudget) {
+        this.totalPoints = totalPoints;
+        this.keepAll = pointBudget <= 0 || totalPoints <= pointBudget;
+        this.keepFirst = keepAll || pointBudget >= 2;
+        // Two points per bucket, after the first and last.
+        this.bucketCount = keepAll ? 0 : Math.max(0, (pointBudget - 2) / 2);
+    }
+
+    void add(String placeDateTime, int runningTotal) {
+        if (keepAll || (index == 0 && keepFirst)) {
+            points.add(new Point(placeDateTime, runningTotal));
+        } else if (index > 1) {
+            // The previous point is not the last one after all.
+            addInterior(lastPlaceDateTime, lastRunningTotal, index - 1);
+        }
+        lastPlaceDateTime = placeDateTime;
+        lastRunningTotal = runningTotal;
+        index++;
+    }
+
+    private void addInterior(String placeDateTime, int runningTotal, int pointIndex) {
+        if (bucketCount == 0) {
+            return;
+        }
+        int interiorIndex = pointIndex - 1;
+        int pointBucket = (int) (interiorIndex * (long) bucketCount / Math.max(1, totalPoints - 2));
+        if (pointBucket != bucket) {
+            flushBucket();
+            bucket = pointBucket;
+        }
+
+        if (min == null || runningTotal < min.runningTotal()) {
+            min = new Point(placeDateTime, runningTotal);
+            minIndex = pointIndex;
+        }
+        if (max == null || runningTotal > max.runningTotal()) {
+            max = new Point(placeDateTime, runningTotal);
+            maxIndex = pointIndex;
+        }
+    }
+
+    List<Point> points() {
+        if (!finished && !keepAll) {
+            flushBucket();
+            // A single point is both first and last.
+            if (index > 1 || (index == 1 && !keepFirst)) {
+                points.add(new Point(lastPlaceDateTime, lastRunningTotal));
+            }
+            finished = true;
+        }
+        return points;
+    }
+
+    void write(Path file) throws IOException {
+        Files.write(file, toCsv());
+    }
+
+    byte[] toCsv() {
+        StringBuilder csv = new StringBuilder(HEADER).append(System.lineSeparator());
+        for (Point point : points()) {
+            csv.append(point.placeDateTime() != null ? point.placeDateTime() : "")
+                    .append(',')
+                    .append(point.runningTotal())
+                    .append(System.lineSeparator());
+        }
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void flushBucket() {
+        if (min == null) {
+            return;
+        }
+        if (minIndex == maxIndex) {
+            points.add(min);
+        } else if (minIndex < maxIndex) {
+            points.add(min);
+            points.add(max);
+        } else {
+            points.add(max);
+            points.add(min);
+        }
+        min = null;
+        max = null;
+    }
+
+    record Point(String placeDateTime, int runningTotal) {
+    }
+}
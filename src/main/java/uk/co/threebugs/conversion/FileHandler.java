@@ -10,7 +10,7 @@ import java.util.regex.Pattern;
 @Slf4j
 public class FileHandler {
 
-    private static final String EXPECTED_HEADER = "tradeId,traderId,timeToPlace,dayOfWeek,dayOfMonth,month,weekOfYear,placedDateTime,limitPrice,stopPrice,state,filledPrice,exitPrice,direction";
+    public static final String EXPECTED_HEADER = "tradeId,traderId,timeToPlace,dayOfWeek,dayOfMonth,month,weekOfYear,placedDateTime,limitPrice,stopPrice,state,filledPrice,exitPrice,direction";
 
     public void validateHeader(String header) {
         if (header == null || !header.equals(EXPECTED_HEADER)) {
@@ -1,6 +1,7 @@
 package uk.co.threebugs.conversion;
 
 import lombok.extern.slf4j.Slf4j;
+import uk.co.threebugs.csv.CsvLine;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
@@ -13,35 +14,73 @@ import java.util.Map;
 @Slf4j
 public class LineProcessor {
 
+    private final CsvLine fields = new CsvLine();
+
+    /**
+     * Formats one raw trade line into the writer of its trader. Not thread-safe: the field offsets of the
+     * current line are kept in this instance.
+     */
     public void processLine(String line, Map<String, Integer> headerMap, Map<String, BufferedWriter> writers, Map<String, Integer> runningTotalProfits, int direction) {
-        String[] fields = line.split(",");
-        String traderIdField = fields[headerMap.get("traderId")].trim();
+        fields.reset(line);
+        String traderIdField = fields.trimmedField(headerMap.get("traderId"));
 
         if (line.contains("POISON")) {
             return; // Skip invalid lines
         }
 
         if (writers.containsKey(traderIdField)) {
+            String formatted = format(line, traderIdField, headerMap, runningTotalProfits, direction);
+            if (formatted == null) {
+                return;
+            }
             try {
-                int exitPrice = Integer.parseInt(fields[headerMap.get("exitPrice")].trim());
-                int filledPrice = Integer.parseInt(fields[headerMap.get("filledPrice")].trim());
-                String state = fields[headerMap.get("state")].trim();
-                int tickProfit = (exitPrice - filledPrice) * direction;
-
-                int placedDateTime = Integer.parseInt(fields[headerMap.get("placedDateTime")]);
-                LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochSecond(placedDateTime), ZoneId.of("UTC"));
-
-                int runningTotalProfit = runningTotalProfits.get(traderIdField) + tickProfit;
-                runningTotalProfits.put(traderIdField, runningTotalProfit);
-
                 BufferedWriter writer = writers.get(traderIdField);
-                writer.write(String.join(",", dateTime.format(DateUtils.DATE_TIME_FORMATTER), String.valueOf(filledPrice), String.valueOf(exitPrice), String.valueOf(tickProfit), String.valueOf(runningTotalProfit), state));
+                writer.write(formatted);
                 writer.newLine();
-            } catch (NumberFormatException | DateTimeException e) {
-                log.error("Error parsing line: {}", line, e);
             } catch (IOException e) {
                 log.error("Error writing to file for traderId: {}", traderIdField, e);
             }
         }
     }
+
+    /**
+     * Formats one raw trade line of {@code traderId}, for callers that keep the formatted lines themselves.
+     *
+     * @return The formatted line without a line break, or null if the line is invalid or belongs to another
+     * trader.
+     */
+    public String formatLine(String line, Map<String, Integer> headerMap, String traderId, Map<String, Integer> runningTotalProfits, int direction) {
+        fields.reset(line);
+        String traderIdField = fields.trimmedField(headerMap.get("traderId"));
+
+        if (line.contains("POISON") || !traderId.equals(traderIdField)) {
+            return null;
+        }
+        return format(line, traderIdField, headerMap, runningTotalProfits, direction);
+    }
+
+    /**
+     * Formats the current line and adds its profit to the trader's running total.
+     *
+     * @return The formatted line, or null if a field could not be parsed.
+     */
+    private String format(String line, String traderIdField, Map<String, Integer> headerMap, Map<String, Integer> runningTotalProfits, int direction) {
+        try {
+            int exitPrice = fields.trimmedIntField(headerMap.get("exitPrice"));
+            int filledPrice = fields.trimmedIntField(headerMap.get("filledPrice"));
+            String state = fields.trimmedField(headerMap.get("state"));
+            int tickProfit = (exitPrice - filledPrice) * direction;
+
+            int placedDateTime = fields.intField(headerMap.get("placedDateTime"));
+            LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochSecond(placedDateTime), ZoneId.of("UTC"));
+
+            int runningTotalProfit = runningTotalProfits.get(traderIdField) + tickProfit;
+            runningTotalProfits.put(traderIdField, runningTotalProfit);
+
+            return String.join(",", dateTime.format(DateUtils.DATE_TIME_FORMATTER), String.valueOf(filledPrice), String.valueOf(exitPrice), String.valueOf(tickProfit), String.valueOf(runningTotalProfit), state);
+        } catch (NumberFormatException | DateTimeException e) {
+            log.error("Error parsing line: {}", line, e);
+            return null;
+        }
+    }
 }
@@ -0,0 +1,73 @@
+package uk.co.threebugs.conversion;
+
+import uk.co.threebugs.tradelog.SegmentedTradeLog;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The raw trades of a scenario: for each trader, CSV lines starting with the trades header.
+ */
+public interface RawTrades {
+
+    List<String> traderIds();
+
+    BufferedReader open(String traderId) throws IOException;
+
+    /**
+     * One raw CSV file per trader, named {@code <traderId>.csv}. Other files are ignored, except the segment
+     * and index files of a segmented trade log: finding them here means the log was never completed.
+     */
+    static RawTrades files(List<File> files) {
+        Map<String, File> traderFiles = new LinkedHashMap<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (SegmentedTradeLog.isLogFile(name)) {
+                throw new IllegalStateException("Incomplete segmented trade log in " + file.getParent()
+                        + ": delete the scenario directory to download it again");
+            }
+            if (name.endsWith(".csv")) {
+                traderFiles.put(name.substring(0, name.length() - ".csv".length()), file);
+            }
+        }
+        return new RawTrades() {
+            @Override
+            public List<String> traderIds() {
+                return List.copyOf(traderFiles.keySet());
+            }
+
+            @Override
+            public BufferedReader open(String traderId) throws IOException {
+                return Files.newBufferedReader(traderFiles.get(traderId).toPath());
+            }
+        };
+    }
+
+    /**
+     * The traders of a segmented trade log, each replayed behind the header stored in the log.
+     */
+    static RawTrades log(SegmentedTradeLog tradeLog) {
+        byte[] header = (tradeLog.header() + "\n").getBytes(StandardCharsets.UTF_8);
+        return new RawTrades() {
+            @Override
+            public List<String> traderIds() {
+                return tradeLog.traderIds();
+            }
+
+            @Override
+            public BufferedReader open(String traderId) throws IOException {
+                return new BufferedReader(new InputStreamReader(
+                        new SequenceInputStream(new ByteArrayInputStream(header), tradeLog.openTrader(traderId)), StandardCharsets.UTF_8));
+            }
+        };
+    }
+}
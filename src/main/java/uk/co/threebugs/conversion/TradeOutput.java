@@ -0,0 +1,86 @@
+package uk.co.threebugs.conversion;
+
+import uk.co.threebugs.archive.ScenarioArchive;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Where finished scenario files go. Names are relative to the scenario and use '/' as the separator, for
+ * example {@code formatted-trades/1000.csv}.
+ */
+@FunctionalInterface
+public interface TradeOutput {
+
+    void write(String name, byte[] content) throws IOException;
+
+    /**
+     * Writes the content of a local file, for content too large to hold in memory. The caller still owns
+     * {@code file} and deletes it afterwards.
+     */
+    default void writeFile(String name, Path file) throws IOException {
+        write(name, Files.readAllBytes(file));
+    }
+
+    /**
+     * Writes each file under {@code scenarioDir}.
+     */
+    static TradeOutput directory(Path scenarioDir) {
+        return new TradeOutput() {
+            @Override
+            public void write(String name, byte[] content) throws IOException {
+                Files.write(target(name), content);
+            }
+
+            @Override
+            public void writeFile(String name, Path file) throws IOException {
+                Files.copy(file, target(name), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            private Path target(String name) throws IOException {
+                Path file = scenarioDir.resolve(name);
+                Files.createDirectories(file.getParent());
+                return file;
+            }
+        };
+    }
+
+    /**
+     * Adds each file to {@code archive} as an entry.
+     */
+    static TradeOutput archive(ScenarioArchive archive) {
+        return new TradeOutput() {
+            @Override
+            public void write(String name, byte[] content) throws IOException {
+                archive.addBytes(name, content);
+            }
+
+            @Override
+            public void writeFile(String name, Path file) throws IOException {
+                archive.addFile(name, file);
+            }
+        };
+    }
+
+    /**
+     * Writes each file here and then to {@code other}.
+     */
+    default TradeOutput and(TradeOutput other) {
+        TradeOutput first = this;
+        return new TradeOutput() {
+            @Override
+            public void write(String name, byte[] content) throws IOException {
+                first.write(name, content);
+                other.write(name, content);
+            }
+
+            @Override
+            public void writeFile(String name, Path file) throws IOException {
+                first.writeFile(name, file);
+                other.writeFile(name, file);
+            }
+        };
+    }
+}
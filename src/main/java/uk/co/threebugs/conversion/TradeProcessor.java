@@ -1,57 +1,267 @@
 package uk.co.threebugs.conversion;
 
 import lombok.extern.slf4j.Slf4j;
+import uk.co.threebugs.StartupClock;
+import uk.co.threebugs.csv.CsvLine;
+import uk.co.threebugs.memory.MemoryBudget;
+import uk.co.threebugs.pipeline.Channel;
+import uk.co.threebugs.pipeline.PipelineSettings;
+import uk.co.threebugs.pipeline.StagedPipeline;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.File;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.stream.Stream;
 
 @Slf4j
 public class TradeProcessor {
 
+    /**
+     * Bytes held per byte of a formatted trades file while it is sorted in memory: the lines, their sort keys
+     * and the lines with recalculated running totals.
+     */
+    static final int SORT_MEMORY_FACTOR = 6;
+    /**
+     * Heap held by one formatted line kept for sorting, besides its characters: the String and its array, the
+     * PlaceDateTime key and the SortableLine.
+     */
+    static final int SORTED_LINE_OVERHEAD = 120;
+    /**
+     * Converting traders reserve memory in steps of this size rather than line by line.
+     */
+    static final long CONVERT_RESERVATION_STEP = 64 * 1024;
+    static final long MIN_SPILL_RUN_BYTES = 4 * 1024;
+    static final long MAX_SPILL_RUN_BYTES = 64 * 1024 * 1024;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private static final Comparator<SortableLine> BY_PLACE_DATE_TIME = (line1, line2) -> {
+        if (line1.placeDateTime() != null && line2.placeDateTime() != null) {
+            return line1.placeDateTime().compareTo(line2.placeDateTime());
+        }
+        return 0;
+    };
+
     private final WriterInitializer writerInitializer;
     private final FileHandler fileHandler;
     private final LineProcessor lineProcessor;
+    private final PipelineSettings settings;
+    private final int equityCurvePoints;
 
-    public TradeProcessor() {
+    /**
+     * @param settings          The pipeline concurrency settings and the memory budget sorts reserve from.
+     * @param equityCurvePoints The point budget of the downsampled equity curves; 0 disables them.
+     */
+    public TradeProcessor(PipelineSettings settings, int equityCurvePoints) {
         this.writerInitializer = new WriterInitializer();
         this.fileHandler = new FileHandler();
         this.lineProcessor = new LineProcessor();
+        this.settings = settings;
+        this.equityCurvePoints = equityCurvePoints;
     }
 
-    public void processTrades(List<File> files, String symbol, String scenario, String backTestId) throws IOException {
+    public void processTrades(RawTrades rawTrades, String symbol, String scenario, String backTestId) throws IOException {
         Path formattedTradesOutputPath = Paths.get("output", backTestId, symbol, scenario, "formatted-trades");
 
         Files.createDirectories(formattedTradesOutputPath);
 
-        Map<String, BufferedWriter> writers = writerInitializer.initializeWriters(files, formattedTradesOutputPath);
-        Map<String, Integer> runningTotalProfits = writerInitializer.initializeRunningTotalProfits(files);
+        Path equityCurvesOutputPath = null;
+        if (equityCurvePoints > 0) {
+            equityCurvesOutputPath = formattedTradesOutputPath.resolveSibling("equity-curves");
+            Files.createDirectories(equityCurvesOutputPath);
+        }
+
+        List<String> traderIds = rawTrades.traderIds();
+        Map<String, Integer> runningTotalProfits = writerInitializer.initializeRunningTotalProfits(traderIds);
 
-        for (File file : files) {
-            log.info("Processing file: {}", file.getName());
-            processFile(file, writers, runningTotalProfits, scenario );
+        // Traders are processed one after another, so only the current trader's writer and its buffer are open.
+        for (String traderId : traderIds) {
+            log.info("Processing trader: {}", traderId);
+            Map<String, BufferedWriter> writers = writerInitializer.initializeWriters(List.of(traderId), formattedTradesOutputPath);
+            try {
+                processTrader(rawTrades, traderId, writers, runningTotalProfits, scenario);
+            } finally {
+                writerInitializer.closeWriters(writers);
+            }
         }
 
-        writerInitializer.closeWriters(writers);
+        sortOutputFiles(formattedTradesOutputPath, equityCurvesOutputPath);
+    }
 
-        sortOutputFiles(formattedTradesOutputPath);
+    /**
+     * Converts and sorts each trader's trades and writes the finished files to {@code output}, so the formatted
+     * trades are not written to disk and read back before archiving. Traders are converted concurrently, up to
+     * the configured convert concurrency, each with its own {@link LineProcessor}.
+     * <p>
+     * Formatted lines go straight from the reader into the sort, and memory for them is reserved from the budget
+     * as they are kept. When the budget denies more, the lines kept so far are sorted and spilled to a temporary
+     * run, and the runs are merged into a temporary file that is handed to {@code output}.
+     *
+     * @param rawTrades The raw trades of each trader
+     * @param scenario The scenario, which decides the trade direction
+     * @param output   Where the formatted trades and equity curves are written
+     */
+    public void convertTrades(RawTrades rawTrades, String scenario, TradeOutput output) throws IOException {
+        int direction = scenario.contains("short") ? -1 : 1;
+        List<String> traderIds = rawTrades.traderIds();
+        try (StagedPipeline pipeline = new StagedPipeline("convert " + scenario)) {
+            Channel<String> traders = pipeline.channel("traders", settings.queueCapacity());
+            pipeline.source("list", traders, out -> {
+                for (String traderId : traderIds) {
+                    out.emit(traderId);
+                }
+            });
+            pipeline.sink("convert", settings.convertConcurrency(), traders, traderId -> convertTrader(rawTrades, traderId, direction, output));
+            pipeline.await();
+        }
+        log.info("Converted {} traders for scenario {}", traderIds.size(), scenario);
+    }
+
+    private void convertTrader(RawTrades rawTrades, String traderId, int direction, TradeOutput output) throws IOException {
+        MemoryBudget budget = settings.memoryBudget();
+        Map<String, Integer> formattedHeaderMap = fileHandler.createHeaderMap(WriterInitializer.FORMATTED_TRADES_HEADER);
+        int placeDateTimeIndex = formattedHeaderMap.get("PlaceDateTime");
+        int profitIndex = formattedHeaderMap.get("Profit");
+
+        LineProcessor traderLineProcessor = new LineProcessor();
+        Map<String, Integer> runningTotalProfits = new HashMap<>(Map.of(traderId, 0));
+        CsvLine fields = new CsvLine();
+        List<SortableLine> lines = new ArrayList<>();
+        List<Path> runs = new ArrayList<>();
+        long reservedBytes = 0;
+        long keptBytes = 0;
+        long formattedChars = 0;
+        int lineCount = 0;
+        try {
+            try (BufferedReader reader = rawTrades.open(traderId)) {
+                String header = reader.readLine();
+                fileHandler.validateHeader(header);
+                Map<String, Integer> headerMap = fileHandler.createHeaderMap(header);
+                StartupClock.firstRecord("convert");
+
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String formatted = traderLineProcessor.formatLine(line, headerMap, traderId, runningTotalProfits, direction);
+                    if (formatted == null) {
+                        continue;
+                    }
+                    long size = formatted.length() + SORTED_LINE_OVERHEAD;
+                    if (keptBytes + size > reservedBytes) {
+                        long step = Math.max(CONVERT_RESERVATION_STEP, size);
+                        if (budget.tryReserve(step)) {
+                            reservedBytes += step;
+                        } else if (!lines.isEmpty()) {
+                            // The reservation held so far is reused for the lines after the spill.
+                            runs.add(spillRun(null, traderId, lines));
+                            lines.clear();
+                            keptBytes = 0;
+                            formattedChars = 0;
+                        } else {
+                            // Nothing left to spill: take one step anyway so the conversion makes progress.
+                            budget.forceReserve(step);
+                            reservedBytes += step;
+                        }
+                    }
+                    lines.add(sortableLine(formatted, fields, placeDateTimeIndex));
+                    keptBytes += size;
+                    formattedChars += formatted.length() + 1;
+                    lineCount++;
+                }
+            }
+
+            EquityCurveDownsampler equityCurve = equityCurvePoints > 0 && lineCount > 0 ? new EquityCurveDownsampler(lineCount, equityCurvePoints) : null;
+            String name = "formatted-trades/" + traderId + ".csv";
+            long outputBytes = WriterInitializer.FORMATTED_TRADES_HEADER.length() + 1 + formattedChars;
+            if (runs.isEmpty() && budget.tryReserve(outputBytes)) {
+                try {
+                    output.write(name, sortInMemory(lines, profitIndex, equityCurve, outputBytes));
+                } finally {
+                    budget.release(outputBytes);
+                }
+            } else {
+                if (!lines.isEmpty()) {
+                    runs.add(spillRun(null, traderId, lines));
+                    lines.clear();
+                }
+                Path sorted = Files.createTempFile(traderId + ".", ".csv");
+                try {
+                    try (BufferedWriter writer = Files.newBufferedWriter(sorted)) {
+                        writer.write(WriterInitializer.FORMATTED_TRADES_HEADER);
+                        writer.newLine();
+                        RunningTotals runningTotals = new RunningTotals(profitIndex, equityCurve);
+                        mergeRuns(runs, placeDateTimeIndex, sortableLine -> {
+                            writer.write(runningTotals.apply(sortableLine));
+                            writer.newLine();
+                        });
+                    }
+                    output.writeFile(name, sorted);
+                } finally {
+                    Files.deleteIfExists(sorted);
+                }
+                log.info("Sorted trades of trader {} in {} spilled runs", traderId, runs.size());
+            }
+
+            if (equityCurve != null) {
+                output.write("equity-curves/" + traderId + ".csv", equityCurve.toCsv());
+            }
+            log.info("Converted and sorted trades of trader {}", traderId);
+        } finally {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+            budget.release(reservedBytes);
+        }
+    }
+
+    /**
+     * Sorts the formatted lines of one trader and encodes them behind the header, recalculating the running
+     * totals on the way.
+     */
+    private static byte[] sortInMemory(List<SortableLine> lines, int profitIndex, EquityCurveDownsampler equityCurve, long expectedBytes) {
+        lines.sort(BY_PLACE_DATE_TIME);
+        ByteArrayOutputStream content = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, expectedBytes));
+        appendLine(content, WriterInitializer.FORMATTED_TRADES_HEADER);
+        RunningTotals runningTotals = new RunningTotals(profitIndex, equityCurve);
+        for (SortableLine sortableLine : lines) {
+            appendLine(content, runningTotals.apply(sortableLine));
+        }
+        return content.toByteArray();
+    }
+
+    private static void appendLine(ByteArrayOutputStream content, String line) {
+        content.writeBytes(line.getBytes(StandardCharsets.UTF_8));
+        content.writeBytes(LINE_SEPARATOR);
     }
 
     /**
      * Reads each output file, sorts the trades by PlaceDateTime (earliest first), and writes them back to the file.
+     * Files are sorted concurrently, up to the configured convert concurrency.
      *
-     * @param outputPath The directory containing the formatted trade files
+     * @param outputPath            The directory containing the formatted trade files
+     * @param equityCurvesOutputPath The directory for the downsampled equity curves, or null to skip them
      */
-    private void sortOutputFiles(Path outputPath) {
-        try {
-            Files.list(outputPath).filter(Files::isRegularFile).forEach(this::sortFile);
+    private void sortOutputFiles(Path outputPath, Path equityCurvesOutputPath) {
+        try (StagedPipeline pipeline = new StagedPipeline("sort " + outputPath)) {
+            Channel<Path> files = pipeline.channel("files", settings.queueCapacity());
+            pipeline.source("list", files, out -> {
+                try (Stream<Path> paths = Files.list(outputPath)) {
+                    for (Path path : paths.filter(Files::isRegularFile).toList()) {
+                        out.emit(path);
+                    }
+                }
+            });
+            pipeline.sink("sort", settings.convertConcurrency(), files, file -> sortFile(file, equityCurvesOutputPath));
+            pipeline.await();
             log.info("All output files have been sorted by PlaceDateTime");
         } catch (IOException e) {
             log.error("Error sorting output files", e);
@@ -59,93 +269,232 @@ public class TradeProcessor {
     }
 
     /**
-     * Sorts a single file by PlaceDateTime.
+     * Sorts a single file by PlaceDateTime. The equity curve is downsampled while the running totals are
+     * recalculated and written to a file of the same name in {@code equityCurvesOutputPath}. A file the memory
+     * budget cannot hold is sorted in runs that are spilled next to it and merged.
      *
-     * @param filePath The path to the file to sort
+     * @param filePath               The path to the file to sort
+     * @param equityCurvesOutputPath The directory for the downsampled equity curve, or null to skip it
      */
-    private void sortFile(Path filePath) {
+    void sortFile(Path filePath, Path equityCurvesOutputPath) {
+        MemoryBudget budget = settings.memoryBudget();
         try {
-            // Read all lines from the file
-            List<String> lines = Files.readAllLines(filePath);
-
-            if (lines.size() <= 1) {
-                // File is empty or contains only headers - nothing to sort
+            long reservation = Files.size(filePath) * SORT_MEMORY_FACTOR;
+            if (!budget.tryReserve(reservation)) {
+                sortFileInRuns(filePath, equityCurvesOutputPath);
                 return;
             }
+            try {
+                sortFileInMemory(filePath, equityCurvesOutputPath);
+            } finally {
+                budget.release(reservation);
+            }
+        } catch (IOException e) {
+            log.error("Error sorting file: {}", filePath.getFileName(), e);
+        }
+    }
 
-            // Extract header
-            String header = lines.getFirst();
+    private void sortFileInMemory(Path filePath, Path equityCurvesOutputPath) throws IOException {
+        // Read all lines from the file
+        List<String> lines = Files.readAllLines(filePath);
 
-            // Get index of PlaceDateTime column
-            Map<String, Integer> headerMap = fileHandler.createHeaderMap(header);
-            int placeDateTimeIndex = headerMap.getOrDefault("PlaceDateTime", 0);
-            int profitIndex = headerMap.getOrDefault("Profit", 3);
+        if (lines.size() <= 1) {
+            // File is empty or contains only headers - nothing to sort
+            return;
+        }
 
-            // Sort the data lines (excluding header)
-            List<String> dataLines = lines.subList(1, lines.size());
-            dataLines.sort((line1, line2) -> {
-                String[] parts1 = line1.split(",");
-                String[] parts2 = line2.split(",");
+        EquityCurveDownsampler equityCurve = equityCurvesOutputPath != null ? new EquityCurveDownsampler(lines.size() - 1, equityCurvePoints) : null;
+        List<String> sortedLines = sortTrades(lines, equityCurve);
 
-                if (parts1.length > placeDateTimeIndex && parts2.length > placeDateTimeIndex) {
-                    return parts1[placeDateTimeIndex].compareTo(parts2[placeDateTimeIndex]);
-                }
-                return 0;
-            });
+        // Write back the sorted file (header + sorted data with updated running totals)
+        try (BufferedWriter writer = Files.newBufferedWriter(filePath)) {
+            for (String line : sortedLines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
 
-            // Recalculate running totals after sorting
-            int runningTotal = 0;
-            List<String> updatedLines = new ArrayList<>();
-
-            for (String line : dataLines) {
-                String[] parts = line.split(",");
-                if (parts.length > profitIndex) {
-                    int profit = Integer.parseInt(parts[profitIndex]);
-                    runningTotal += profit;
-
-                    // Reconstruct the line with the updated running total
-                    StringBuilder updatedLine = new StringBuilder();
-                    for (int i = 0; i < parts.length; i++) {
-                        if (i == profitIndex + 1) { // RunningTotalProfit index
-                            updatedLine.append(runningTotal);
-                        } else {
-                            updatedLine.append(parts[i]);
-                        }
+        if (equityCurve != null) {
+            equityCurve.write(equityCurvesOutputPath.resolve(filePath.getFileName()));
+        }
 
-                        if (i < parts.length - 1) {
-                            updatedLine.append(",");
-                        }
+        log.info("Sorted file and recalculated running totals: {}", filePath.getFileName());
+    }
+
+    /**
+     * Sorts a file with an external merge sort: runs of lines that fit in one reservation are sorted and spilled
+     * to temporary files next to the file, then merged back into it. Lines with equal PlaceDateTime keep their
+     * file order, as with the in-memory sort, so both produce the same file.
+     */
+    private void sortFileInRuns(Path filePath, Path equityCurvesOutputPath) throws IOException {
+        MemoryBudget budget = settings.memoryBudget();
+        long runBytes = Math.clamp(budget.getLimitBytes() / ((long) settings.convertConcurrency() * SORT_MEMORY_FACTOR), MIN_SPILL_RUN_BYTES, MAX_SPILL_RUN_BYTES);
+        long reservation = runBytes * SORT_MEMORY_FACTOR;
+        // One reservation covers every run of this file; it is the only one this worker holds, so waiting is safe.
+        budget.reserve(reservation);
+
+        List<Path> runs = new ArrayList<>();
+        try {
+            String header;
+            int placeDateTimeIndex;
+            int profitIndex;
+            int lineCount = 0;
+            try (BufferedReader reader = Files.newBufferedReader(filePath)) {
+                header = reader.readLine();
+                if (header == null) {
+                    return;
+                }
+                Map<String, Integer> headerMap = fileHandler.createHeaderMap(header);
+                placeDateTimeIndex = headerMap.getOrDefault("PlaceDateTime", 0);
+                profitIndex = headerMap.getOrDefault("Profit", 3);
+
+                CsvLine fields = new CsvLine();
+                List<SortableLine> run = new ArrayList<>();
+                long bytes = 0;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    run.add(sortableLine(line, fields, placeDateTimeIndex));
+                    bytes += line.length() + 1;
+                    lineCount++;
+                    if (bytes >= runBytes) {
+                        runs.add(spillRun(filePath.getParent(), filePath.getFileName().toString(), run));
+                        run.clear();
+                        bytes = 0;
                     }
-                    updatedLines.add(updatedLine.toString());
-                } else {
-                    updatedLines.add(line);
                 }
+                if (!run.isEmpty()) {
+                    runs.add(spillRun(filePath.getParent(), filePath.getFileName().toString(), run));
+                }
+            }
+            if (lineCount == 0) {
+                return;
             }
 
-            // Write back the sorted file (header + sorted data with updated running totals)
+            EquityCurveDownsampler equityCurve = equityCurvesOutputPath != null ? new EquityCurveDownsampler(lineCount, equityCurvePoints) : null;
+            RunningTotals runningTotals = new RunningTotals(profitIndex, equityCurve);
             try (BufferedWriter writer = Files.newBufferedWriter(filePath)) {
                 writer.write(header);
                 writer.newLine();
-
-                for (String line : updatedLines) {
-                    writer.write(line);
+                mergeRuns(runs, placeDateTimeIndex, sortableLine -> {
+                    writer.write(runningTotals.apply(sortableLine));
                     writer.newLine();
+                });
+            }
+
+            if (equityCurve != null) {
+                equityCurve.write(equityCurvesOutputPath.resolve(filePath.getFileName()));
+            }
+            log.info("Sorted file in {} spilled runs and recalculated running totals: {}", runs.size(), filePath.getFileName());
+        } finally {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+            budget.release(reservation);
+        }
+    }
+
+    /**
+     * Sorts {@code run} and writes it to a temporary file in {@code dir}, or in the default temporary directory
+     * if {@code dir} is null.
+     */
+    private static Path spillRun(Path dir, String prefix, List<SortableLine> run) throws IOException {
+        run.sort(BY_PLACE_DATE_TIME);
+        Path runFile = dir != null ? Files.createTempFile(dir, prefix + ".", ".run") : Files.createTempFile(prefix + ".", ".run");
+        try (BufferedWriter writer = Files.newBufferedWriter(runFile)) {
+            for (SortableLine sortableLine : run) {
+                writer.write(sortableLine.line());
+                writer.newLine();
+            }
+        }
+        return runFile;
+    }
+
+    /**
+     * Merges sorted runs, taking equal lines from the earliest run first so the merge is stable.
+     */
+    private static void mergeRuns(List<Path> runs, int placeDateTimeIndex, SortedLineConsumer consumer) throws IOException {
+        List<BufferedReader> readers = new ArrayList<>(runs.size());
+        try {
+            PriorityQueue<RunCursor> queue = new PriorityQueue<>(Comparator.comparing(RunCursor::current, BY_PLACE_DATE_TIME).thenComparingInt(RunCursor::run));
+            for (int i = 0; i < runs.size(); i++) {
+                BufferedReader reader = Files.newBufferedReader(runs.get(i));
+                readers.add(reader);
+                RunCursor cursor = new RunCursor(i, reader, placeDateTimeIndex);
+                if (cursor.advance()) {
+                    queue.add(cursor);
                 }
             }
 
-            log.info("Sorted file and recalculated running totals: {}", filePath.getFileName());
-        } catch (IOException e) {
-            log.error("Error sorting file: {}", filePath.getFileName(), e);
+            RunCursor cursor;
+            while ((cursor = queue.poll()) != null) {
+                consumer.accept(cursor.current());
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+        } finally {
+            for (BufferedReader reader : readers) {
+                reader.close();
+            }
         }
     }
 
+    /**
+     * Sorts formatted trade lines by PlaceDateTime and recalculates the running totals, feeding each new
+     * running total to {@code equityCurve}.
+     *
+     * @param lines       The header followed by the trade lines
+     * @param equityCurve The equity curve to build, or null
+     * @return The header followed by the sorted trade lines, or {@code lines} if there is nothing to sort
+     */
+    private List<String> sortTrades(List<String> lines, EquityCurveDownsampler equityCurve) {
+        if (lines.size() <= 1) {
+            return lines;
+        }
+
+        // Extract header
+        String header = lines.getFirst();
+
+        // Get index of PlaceDateTime column
+        Map<String, Integer> headerMap = fileHandler.createHeaderMap(header);
+        int placeDateTimeIndex = headerMap.getOrDefault("PlaceDateTime", 0);
+        int profitIndex = headerMap.getOrDefault("Profit", 3);
+
+        // Extract each line's sort key once rather than splitting both lines on every comparison.
+        List<String> dataLines = lines.subList(1, lines.size());
+        CsvLine fields = new CsvLine();
+        List<SortableLine> sortableLines = new ArrayList<>(dataLines.size());
+        for (String line : dataLines) {
+            sortableLines.add(sortableLine(line, fields, placeDateTimeIndex));
+        }
+
+        // Sort the data lines (excluding header)
+        sortableLines.sort(BY_PLACE_DATE_TIME);
 
+        // Recalculate running totals after sorting
+        RunningTotals runningTotals = new RunningTotals(profitIndex, equityCurve);
+        List<String> updatedLines = new ArrayList<>(lines.size());
+        updatedLines.add(header);
 
-    private void processFile(File file, Map<String, BufferedWriter> writers, Map<String, Integer> runningTotalProfits, String scenario) {
-        try (BufferedReader reader = Files.newBufferedReader(file.toPath())) {
+        for (SortableLine sortableLine : sortableLines) {
+            updatedLines.add(runningTotals.apply(sortableLine));
+        }
+
+        return updatedLines;
+    }
+
+    private static SortableLine sortableLine(String line, CsvLine fields, int placeDateTimeIndex) {
+        fields.reset(line);
+        String placeDateTime = fields.fieldCount() > placeDateTimeIndex ? fields.field(placeDateTimeIndex) : null;
+        return new SortableLine(line, placeDateTime);
+    }
+
+    private void processTrader(RawTrades rawTrades, String traderId, Map<String, BufferedWriter> writers, Map<String, Integer> runningTotalProfits, String scenario) {
+        try (BufferedReader reader = rawTrades.open(traderId)) {
             String header = reader.readLine();
             fileHandler.validateHeader(header);
             Map<String, Integer> headerMap = fileHandler.createHeaderMap(header);
+            StartupClock.firstRecord("convert");
 
             String line;
             while ((line = reader.readLine()) != null) {
@@ -153,7 +502,88 @@ public class TradeProcessor {
             }
 
         } catch (IOException e) {
-            log.error("Error reading file: {}", file.getName(), e);
+            log.error("Error reading trades of trader: {}", traderId, e);
         }
     }
+
+    private record SortableLine(String line, String placeDateTime) {
+    }
+
+    /**
+     * Recalculates the running total of sorted lines one at a time, feeding each new running total to the
+     * equity curve.
+     */
+    private static final class RunningTotals {
+
+        private final int profitIndex;
+        private final EquityCurveDownsampler equityCurve;
+        private final CsvLine fields = new CsvLine();
+        private int runningTotal;
+
+        RunningTotals(int profitIndex, EquityCurveDownsampler equityCurve) {
+            this.profitIndex = profitIndex;
+            this.equityCurve = equityCurve;
+        }
+
+        String apply(SortableLine sortableLine) {
+            String line = sortableLine.line();
+            fields.reset(line);
+            int fieldCount = fields.fieldCount();
+            if (fieldCount <= profitIndex) {
+                return line;
+            }
+
+            int profit = fields.intField(profitIndex);
+            runningTotal += profit;
+            if (equityCurve != null) {
+                equityCurve.add(sortableLine.placeDateTime(), runningTotal);
+            }
+
+            // Reconstruct the line with the updated running total. Like joining the split fields,
+            // this drops trailing empty fields.
+            int runningTotalIndex = profitIndex + 1;
+            int lineEnd = fieldCount > 0 ? fields.fieldEnd(fieldCount - 1) : 0;
+            if (runningTotalIndex < fieldCount) {
+                return line.substring(0, fields.fieldStart(runningTotalIndex)) + runningTotal + line.substring(fields.fieldEnd(runningTotalIndex), lineEnd);
+            }
+            return line.substring(0, lineEnd);
+        }
+    }
+
+    /**
+     * Reads one spilled run back a line at a time.
+     */
+    private static final class RunCursor {
+
+        private final int run;
+        private final BufferedReader reader;
+        private final int placeDateTimeIndex;
+        private final CsvLine fields = new CsvLine();
+        private SortableLine current;
+
+        RunCursor(int run, BufferedReader reader, int placeDateTimeIndex) {
+            this.run = run;
+            this.reader = reader;
+            this.placeDateTimeIndex = placeDateTimeIndex;
+        }
+
+        int run() {
+            return run;
+        }
+
+        SortableLine current() {
+            return current;
+        }
+
+        boolean advance() throws IOException {
+            String line = reader.readLine();
+            current = line != null ? sortableLine(line, fields, placeDateTimeIndex) : null;
+            return current != null;
+        }
+    }
+
+    @FunctionalInterface
+    private interface SortedLineConsumer {
+        void accept(SortableLine line) throws IOException;
+    }
 }
@@ -1,32 +1,33 @@
 package uk.co.threebugs.conversion;
 
 import java.io.BufferedWriter;
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 public class WriterInitializer {
 
-    public Map<String, BufferedWriter> initializeWriters(List<File> files, Path formattedTradesOutputPath) throws IOException {
+    public static final String FORMATTED_TRADES_HEADER = "PlaceDateTime,FilledPrice,ClosingPrice,Profit,RunningTotalProfit,State";
+
+    public Map<String, BufferedWriter> initializeWriters(Collection<String> traderIds, Path formattedTradesOutputPath) throws IOException {
         Map<String, BufferedWriter> writers = new HashMap<>();
-        for (File file : files) {
+        for (String traderId : traderIds) {
 
-            BufferedWriter writer = Files.newBufferedWriter(formattedTradesOutputPath.resolve(file.getName()));
-            writer.write("PlaceDateTime,FilledPrice,ClosingPrice,Profit,RunningTotalProfit,State");
+            BufferedWriter writer = Files.newBufferedWriter(formattedTradesOutputPath.resolve(traderId + ".csv"));
+            writer.write(FORMATTED_TRADES_HEADER);
             writer.newLine();
-            writers.put(file.getName().replace(".csv", ""), writer);
+            writers.put(traderId, writer);
         }
         return writers;
     }
 
-    public Map<String, Integer> initializeRunningTotalProfits(List<File> files) {
+    public Map<String, Integer> initializeRunningTotalProfits(Collection<String> traderIds) {
         Map<String, Integer> runningTotalProfits = new HashMap<>();
-        for (File traderId : files) {
-            runningTotalProfits.put(traderId.getName().replace(".csv", ""), 0);
+        for (String traderId : traderIds) {
+            runningTotalProfits.put(traderId, 0);
         }
         return runningTotalProfits;
     }
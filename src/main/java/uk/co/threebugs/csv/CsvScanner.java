@@ -0,0 +1,21 @@
+package uk.co.threebugs.csv;
+
+/**
+ * Finds delimiter positions in UTF-8 CSV bytes. {@link #get()} returns a SIMD implementation built on the
+ * {@code jdk.incubator.vector} module when the JVM was started with {@code --add-modules jdk.incubator.vector},
+ * and a scalar loop otherwise.
+ */
+public interface CsvScanner {
+
+    /**
+     * @return The index of the first {@code target} in {@code buf[from, to)}, or -1 if there is none.
+     */
+    int indexOf(byte[] buf, int from, int to, byte target);
+
+    /**
+     * The shared scanner for this JVM. Set {@code -Dcsv.scanner=scalar} to force the scalar loop.
+     */
+    static CsvScanner get() {
+        return CsvScannerHolder.INSTANCE;
+    }
+}
@@ -0,0 +1,27 @@
+package uk.co.threebugs.csv;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Picks the {@link CsvScanner} implementation once per JVM. The vector class is only referenced, and so only
+ * loaded, when the incubator module is present.
+ */
+@Slf4j
+final class CsvScannerHolder {
+
+    static final CsvScanner INSTANCE = create();
+
+    private CsvScannerHolder() {
+    }
+
+    private static CsvScanner create() {
+        boolean vectorAvailable = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+        if (vectorAvailable && !"scalar".equals(System.getProperty("csv.scanner"))) {
+            VectorCsvScanner scanner = new VectorCsvScanner();
+            log.info("Using SIMD CSV scanner ({} bytes per step)", scanner.lanes());
+            return scanner;
+        }
+        log.info("Using scalar CSV scanner");
+        return new ScalarCsvScanner();
+    }
+}
@@ -0,0 +1,18 @@
+package uk.co.threebugs.csv;
+
+/**
+ * Byte-at-a-time {@link CsvScanner}, used when the Vector API is not available and for the tails of
+ * vectorised scans.
+ */
+class ScalarCsvScanner implements CsvScanner {
+
+    @Override
+    public int indexOf(byte[] buf, int from, int to, byte target) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,34 @@
+package uk.co.threebugs.csv;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link CsvScanner} that compares a whole vector of bytes per step (32 with AVX2, 64 with AVX-512) and takes
+ * the first match from the mask. Tails shorter than a vector use the scalar loop.
+ * Only loaded when the {@code jdk.incubator.vector} module is present.
+ */
+class VectorCsvScanner implements CsvScanner {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    private final ScalarCsvScanner scalar = new ScalarCsvScanner();
+
+    int lanes() {
+        return SPECIES.length();
+    }
+
+    @Override
+    public int indexOf(byte[] buf, int from, int to, byte target) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; i < bound; i += SPECIES.length()) {
+            VectorMask<Byte> matches = ByteVector.fromArray(SPECIES, buf, i).eq(target);
+            if (matches.anyTrue()) {
+                return i + matches.firstTrue();
+            }
+        }
+        return scalar.indexOf(buf, i, to, target);
+    }
+}
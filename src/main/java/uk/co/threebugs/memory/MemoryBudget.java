@@ -0,0 +1,280 @@
+package uk.co.threebugs.memory;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The memory the data-dependent buffers of a run may hold at once: routed trade batches, summary downloads, sort
+ * runs and converted trader files. Consumers reserve bytes before they allocate and release them once the data
+ * is written. A consumer that can flush or spill uses {@link #tryReserve(long)} and does so when it is denied;
+ * one that cannot uses {@link #reserve(long)}, which waits for other reservations to be released.
+ * <p>
+ * Reservations are estimates of what a consumer will hold, not measurements of the heap, so the limit should
+ * leave room for the rest of the application.
+ */
+@Slf4j
+public class MemoryBudget implements MemoryBudgetMXBean, AutoCloseable {
+
+    /**
+     * The share of the available memory given to the budget by {@link #fromEnvironment(String)}.
+     */
+    static final double DEFAULT_FRACTION = 0.5;
+
+    private static final MemoryBudget UNLIMITED = new MemoryBudget("unlimited", Long.MAX_VALUE, false);
+
+    private static final Path CGROUP_V2_LIMIT = Path.of("/sys/fs/cgroup/memory.max");
+    private static final Path CGROUP_V1_LIMIT = Path.of("/sys/fs/cgroup/memory/memory.limit_in_bytes");
+
+    private final String name;
+    private final long limitBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private long reservedBytes;
+    private long peakReservedBytes;
+
+    private final AtomicLong deniedCount = new AtomicLong();
+    private final AtomicLong waitCount = new AtomicLong();
+    private final ObjectName objectName;
+
+    /**
+     * @param name       The name used in logs and the JMX object name.
+     * @param limitBytes The most bytes reserved at once.
+     */
+    public MemoryBudget(String name, long limitBytes) {
+        this(name, limitBytes, true);
+    }
+
+    private MemoryBudget(String name, long limitBytes, boolean register) {
+        if (limitBytes < 1) {
+            throw new IllegalArgumentException("Memory budget must be at least 1 byte: " + limitBytes);
+        }
+        this.name = name;
+        this.limitBytes = limitBytes;
+        this.objectName = register ? register() : null;
+    }
+
+    /**
+     * A budget that grants every reservation, for callers that do not share memory with a run.
+     */
+    public static MemoryBudget unlimited() {
+        return UNLIMITED;
+    }
+
+    /**
+     * A budget of {@value #DEFAULT_FRACTION} of the memory available to this JVM: the smaller of the maximum
+     * heap size and the container memory limit.
+     */
+    public static MemoryBudget fromEnvironment(String name) {
+        long available = availableMemory();
+        long limit = (long) (available * DEFAULT_FRACTION);
+        log.info("Memory budget {}: {} MiB of {} MiB available", name, limit >> 20, available >> 20);
+        return new MemoryBudget(name, limit);
+    }
+
+    /**
+     * The smaller of {@link Runtime#maxMemory()} and the cgroup (v2 or v1) memory limit, if there is one.
+     */
+    static long availableMemory() {
+        long available = Runtime.getRuntime().maxMemory();
+        Long containerLimit = readCgroupLimit(CGROUP_V2_LIMIT);
+        if (containerLimit == null) {
+            containerLimit = readCgroupLimit(CGROUP_V1_LIMIT);
+        }
+        return containerLimit != null ? Math.min(available, containerLimit) : available;
+    }
+
+    /**
+     * @return The limit in bytes, or null if the file is missing or says there is no limit.
+     */
+    static Long readCgroupLimit(Path file) {
+        try {
+            String value = Files.readString(file).trim();
+            if (value.equals("max")) {
+                return null;
+            }
+            long limit = Long.parseLong(value);
+            // cgroup v1 reports "no limit" as a page-aligned value close to Long.MAX_VALUE.
+            return limit > 0 && limit < Long.MAX_VALUE / 2 ? limit : null;
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reserves {@code bytes} if they fit in the budget now.
+     *
+     * @return Whether the bytes were reserved; if not, the caller should flush or spill what it holds.
+     */
+    public boolean tryReserve(long bytes) {
+        if (bytes <= 0) {
+            return true;
+        }
+        lock.lock();
+        try {
+            if (!fits(bytes)) {
+                deniedCount.incrementAndGet();
+                return false;
+            }
+            add(bytes);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserves {@code bytes}, waiting until they fit in the budget. A reservation larger than the whole budget is
+     * granted once nothing else is reserved, so it cannot wait forever. Callers must not hold another
+     * reservation while they wait.
+     *
+     * @throws InterruptedIOException If the thread is interrupted while waiting.
+     */
+    public void reserve(long bytes) throws InterruptedIOException {
+        if (bytes <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (!fits(bytes) && reservedBytes > 0) {
+                waitCount.incrementAndGet();
+                while (!fits(bytes) && reservedBytes > 0) {
+                    released.await();
+                }
+            }
+            add(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + bytes + " bytes of memory budget " + name);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserves {@code bytes} even if the budget is exceeded. For the small amount a consumer needs to make
+     * progress right after it has flushed everything it held.
+     */
+    public void forceReserve(long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            add(bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            reservedBytes = Math.max(0, reservedBytes - bytes);
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The bytes that can be reserved now without being denied.
+     */
+    public long availableBytes() {
+        lock.lock();
+        try {
+            return Math.max(0, limitBytes - reservedBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean fits(long bytes) {
+        return bytes <= limitBytes - reservedBytes;
+    }
+
+    private void add(long bytes) {
+        reservedBytes = reservedBytes > Long.MAX_VALUE - bytes ? Long.MAX_VALUE : reservedBytes + bytes;
+        peakReservedBytes = Math.max(peakReservedBytes, reservedBytes);
+    }
+
+    @Override
+    public long getLimitBytes() {
+        return limitBytes;
+    }
+
+    @Override
+    public long getReservedBytes() {
+        lock.lock();
+        try {
+            return reservedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getPeakReservedBytes() {
+        lock.lock();
+        try {
+            return peakReservedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getDeniedCount() {
+        return deniedCount.get();
+    }
+
+    @Override
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+    @Override
+    public void close() {
+        if (this == UNLIMITED) {
+            return;
+        }
+        log.info("Memory budget {}: limit {} MiB, peak {} MiB reserved, {} denied, {} waits",
+                name, limitBytes >> 20, getPeakReservedBytes() >> 20, getDeniedCount(), getWaitCount());
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                log.warn("Could not unregister memory budget MBean {}: {}", objectName, e.getMessage());
+            }
+        }
+    }
+
+    private ObjectName register() {
+        try {
+            ObjectName objectName = new ObjectName("uk.co.threebugs:type=MemoryBudget,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            log.warn("Could not register memory budget MBean for {}: {}", name, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return limitBytes == Long.MAX_VALUE ? "MemoryBudget[unlimited]" : "MemoryBudget[" + name + ", " + (limitBytes >> 20) + " MiB]";
+    }
+}
@@ -0,0 +1,28 @@
+package uk.co.threebugs.memory;
+
+/**
+ * JMX view of a {@link MemoryBudget}, registered as {@code uk.co.threebugs:type=MemoryBudget,name=<name>}.
+ */
+public interface MemoryBudgetMXBean {
+
+    long getLimitBytes();
+
+    long getReservedBytes();
+
+    /**
+     * The most bytes reserved at once since the budget was created.
+     */
+    long getPeakReservedBytes();
+
+    /**
+     * The number of {@link MemoryBudget#tryReserve(long)} calls that were denied, each of which made a consumer
+     * flush or spill.
+     */
+    long getDeniedCount();
+
+    /**
+     * The number of {@link MemoryBudget#reserve(long)} calls that had to wait for other reservations to be
+     * released.
+     */
+    long getWaitCount();
+}
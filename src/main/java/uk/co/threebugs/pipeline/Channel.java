@@ -0,0 +1,67 @@
+package uk.co.threebugs.pipeline;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded hand-off between two pipeline stages. Producers block when the channel is full, which is
+ * how backpressure travels upstream. Once every registered producer has finished, consumers see
+ * {@code null} from {@link #take()}.
+ *
+ * @param <T> The type of item passed between the stages.
+ */
+public class Channel<T> {
+
+    private static final Object END = new Object();
+
+    private final String name;
+    private final BlockingQueue<Object> queue;
+    private final AtomicInteger openProducers = new AtomicInteger();
+
+    Channel(String name, int capacity) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Hands an item to the next stage, blocking while the channel is full.
+     *
+     * @param item The item to pass downstream.
+     * @throws InterruptedException if the pipeline is cancelled while waiting.
+     */
+    public void put(T item) throws InterruptedException {
+        queue.put(item);
+    }
+
+    /**
+     * Takes the next item, blocking while the channel is empty.
+     *
+     * @return The next item, or {@code null} once all producers have finished.
+     * @throws InterruptedException if the pipeline is cancelled while waiting.
+     */
+    @SuppressWarnings("unchecked")
+    public T take() throws InterruptedException {
+        Object item = queue.take();
+        if (item == END) {
+            // Leave the marker in place so every other consumer of this channel also sees the end.
+            queue.put(END);
+            return null;
+        }
+        return (T) item;
+    }
+
+    void registerProducer() {
+        openProducers.incrementAndGet();
+    }
+
+    void producerDone() throws InterruptedException {
+        if (openProducers.decrementAndGet() == 0) {
+            queue.put(END);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package uk.co.threebugs.pipeline;
+
+import uk.co.threebugs.memory.MemoryBudget;
+
+/**
+ * Concurrency and memory limits for the stages of the extract job.
+ *
+ * @param downloadConcurrency The number of download workers. The S3 request scheduler decides how many of them
+ *                            have a request in flight, so this is an upper bound.
+ * @param decodeConcurrency   The number of LZO objects decoded and routed at once.
+ * @param convertConcurrency  The number of trader files converted and sorted at once.
+ * @param uploadConcurrency   The number of scenarios compressed and uploaded at once.
+ * @param queueCapacity       The number of items buffered between two stages before the producer blocks.
+ * @param memoryBudget        The memory that buffers, queued batches and sorts of all stages share.
+ */
+public record PipelineSettings(int downloadConcurrency, int decodeConcurrency, int convertConcurrency, int uploadConcurrency, int queueCapacity, MemoryBudget memoryBudget) {
+
+    public PipelineSettings {
+        if (downloadConcurrency < 1 || decodeConcurrency < 1 || convertConcurrency < 1 || uploadConcurrency < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Pipeline concurrency limits and queue capacity must be at least 1");
+        }
+        if (memoryBudget == null) {
+            throw new IllegalArgumentException("Pipeline memory budget must not be null");
+        }
+    }
+
+    /**
+     * Default concurrency limits and an unlimited memory budget.
+     */
+    public static PipelineSettings defaults() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return new PipelineSettings(32, processors, processors, 4, 4, MemoryBudget.unlimited());
+    }
+
+    public PipelineSettings withMemoryBudget(MemoryBudget budget) {
+        return new PipelineSettings(downloadConcurrency, decodeConcurrency, convertConcurrency, uploadConcurrency, queueCapacity, budget);
+    }
+}
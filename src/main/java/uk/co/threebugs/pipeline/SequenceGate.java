@@ -0,0 +1,65 @@
+package uk.co.threebugs.pipeline;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lets the concurrent workers of a stage pass their items on in sequence order. Items are numbered from 0; the
+ * worker holding item {@code n} waits in {@link #awaitTurn(long)} until item {@code n - 1} has
+ * {@link #advance(long) advanced} the gate. Every sequence number must advance exactly once, or later workers
+ * wait until the pipeline is cancelled.
+ */
+public class SequenceGate {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition advanced = lock.newCondition();
+    private long nextSequence;
+
+    /**
+     * Whether {@code sequence} is the next to pass.
+     */
+    public boolean isTurn(long sequence) {
+        lock.lock();
+        try {
+            return sequence == nextSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until {@code sequence} is the next to pass.
+     *
+     * @throws InterruptedIOException If the thread is interrupted while waiting.
+     */
+    public void awaitTurn(long sequence) throws InterruptedIOException {
+        lock.lock();
+        try {
+            while (sequence != nextSequence) {
+                advanced.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the turn of item " + sequence);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lets the item after {@code sequence} pass. Only the item whose turn it is may advance the gate.
+     */
+    public void advance(long sequence) {
+        lock.lock();
+        try {
+            if (sequence != nextSequence) {
+                throw new IllegalStateException("Item " + sequence + " advanced the gate before item " + nextSequence);
+            }
+            nextSequence++;
+            advanced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package uk.co.threebugs.pipeline;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a job as concurrent stages connected by bounded {@link Channel}s. Every stage worker runs on its
+ * own virtual thread, and the number of workers per stage is the concurrency limit of that stage.
+ * The first failure in any stage, an {@link Error} included, cancels every other worker and is rethrown from
+ * {@link #await()}.
+ *
+ * <p>Channels and stages must all be declared before {@link #await()} is called.</p>
+ */
+@Slf4j
+public class StagedPipeline implements AutoCloseable {
+
+    private final String name;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final List<Future<?>> workers = new CopyOnWriteArrayList<>();
+    private final AtomicReference<StageFailure> failure = new AtomicReference<>();
+
+    public StagedPipeline(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Creates a bounded channel to connect two stages.
+     *
+     * @param channelName The name used in log messages.
+     * @param capacity    The number of items the channel buffers before producers block.
+     */
+    public <T> Channel<T> channel(String channelName, int capacity) {
+        return new Channel<>(channelName, capacity);
+    }
+
+    /**
+     * Starts a single-worker stage that produces items into {@code out}.
+     */
+    public <O> void source(String stageName, Channel<O> out, Source<O> source) {
+        out.registerProducer();
+        submit(stageName, () -> {
+            try {
+                source.run(out::put);
+            } finally {
+                out.producerDone();
+            }
+        });
+    }
+
+    /**
+     * Starts {@code concurrency} workers that take items from {@code in} and emit results to {@code out}.
+     */
+    public <I, O> void stage(String stageName, int concurrency, Channel<I> in, Channel<O> out, Step<I, O> step) {
+        for (int i = 0; i < concurrency; i++) {
+            out.registerProducer();
+        }
+        for (int i = 0; i < concurrency; i++) {
+            submit(stageName, () -> {
+                try {
+                    I item;
+                    while ((item = in.take()) != null) {
+                        step.apply(item, out::put);
+                    }
+                } finally {
+                    out.producerDone();
+                }
+            });
+        }
+    }
+
+    /**
+     * Starts {@code concurrency} workers that drain {@code in}.
+     */
+    public <I> void sink(String stageName, int concurrency, Channel<I> in, Sink<I> sink) {
+        for (int i = 0; i < concurrency; i++) {
+            submit(stageName, () -> {
+                I item;
+                while ((item = in.take()) != null) {
+                    sink.accept(item);
+                }
+            });
+        }
+    }
+
+    /**
+     * Waits for every stage to finish.
+     *
+     * @throws IOException if any stage failed with an exception; the first failure is the cause.
+     * @throws Error         if the first failure was an error, such as {@link OutOfMemoryError}; it is rethrown as is.
+     */
+    public void await() throws IOException {
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (CancellationException | ExecutionException e) {
+                // Failures are captured by the worker itself; cancellations follow a recorded failure.
+            } catch (InterruptedException e) {
+                cancelAll();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for pipeline " + name);
+            }
+        }
+
+        StageFailure first = failure.get();
+        if (first != null) {
+            if (first.cause() instanceof Error error) {
+                throw error;
+            }
+            throw new IOException("Pipeline " + name + " failed in stage " + first.stage() + ": " + first.cause().getMessage(), first.cause());
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private void submit(String stageName, Work work) {
+        workers.add(executor.submit(() -> {
+            try {
+                work.run();
+            } catch (Throwable e) {
+                // Errors are recorded too, or peers blocked on a channel would wait for this worker forever.
+                fail(stageName, e);
+            }
+            return null;
+        }));
+        if (failure.get() != null) {
+            cancelAll();
+        }
+    }
+
+    private void fail(String stageName, Throwable e) {
+        if (failure.compareAndSet(null, new StageFailure(stageName, e))) {
+            log.error("Stage {} of pipeline {} failed, cancelling remaining work: {}", stageName, name, e.getMessage(), e);
+            cancelAll();
+        }
+    }
+
+    private void cancelAll() {
+        for (Future<?> worker : workers) {
+            worker.cancel(true);
+        }
+    }
+
+    private record StageFailure(String stage, Throwable cause) {
+    }
+
+    private interface Work {
+        void run() throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface Emitter<T> {
+        void emit(T item) throws InterruptedException;
+    }
+
+    @FunctionalInterface
+    public interface Source<O> {
+        void run(Emitter<O> out) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface Step<I, O> {
+        void apply(I item, Emitter<O> out) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface Sink<I> {
+        void accept(I item) throws Exception;
+    }
+}
@@ -0,0 +1,69 @@
+package uk.co.threebugs.s3;
+
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.awscore.retry.AwsRetryStrategy;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+
+/**
+ * The S3 client and request scheduler of a run, created on first use. Runs that never reach S3, such as
+ * re-converting a scenario that is already on disk, do not load the AWS SDK or register the scheduler in JMX.
+ */
+@Slf4j
+public class S3Access implements AutoCloseable {
+
+    private final String region;
+    private final int initialConcurrency;
+    private final int maxConcurrency;
+
+    private S3Client client;
+    private S3RequestScheduler scheduler;
+
+    /**
+     * @param region             The AWS region id, e.g. {@code eu-central-1}.
+     * @param initialConcurrency The number of S3 requests allowed in flight at the start.
+     * @param maxConcurrency     The upper bound for the adaptive number of S3 requests in flight.
+     */
+    public S3Access(String region, int initialConcurrency, int maxConcurrency) {
+        if (initialConcurrency < 1 || maxConcurrency < initialConcurrency) {
+            throw new IllegalArgumentException("S3 concurrency limits must satisfy 1 <= initial <= max");
+        }
+        this.region = region;
+        this.initialConcurrency = initialConcurrency;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public synchronized S3Client client() {
+        start();
+        return client;
+    }
+
+    public synchronized S3RequestScheduler scheduler() {
+        start();
+        return scheduler;
+    }
+
+    private void start() {
+        if (client != null) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        // Retries are left to the scheduler, which needs to see throttling to adapt its concurrency.
+        client = S3Client.builder()
+                .region(Region.of(region))
+                .overrideConfiguration(o -> o.retryStrategy(AwsRetryStrategy.doNotRetry()))
+                .build();
+        scheduler = new S3RequestScheduler("trade-extract", initialConcurrency, maxConcurrency);
+        log.info("Started S3 client for {} in {} ms", region, (System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (client != null) {
+            scheduler.close();
+            client.close();
+            client = null;
+            scheduler = null;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package uk.co.threebugs.s3;
+
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.file.FileSystemException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the number of S3 requests in flight and adapts the limit with AIMD. After every window of
+ * {@code limit} successful requests the limit grows by one if throughput held up and latency stayed within
+ * {@link #LATENCY_TOLERANCE} of its baseline; if latency degraded it shrinks by 10%. Throttling
+ * (503 SlowDown, 429) halves the limit and other retryable errors cut it by a quarter. Decreases happen at
+ * most once per {@link #DECREASE_COOLDOWN_NANOS}, and the limit does not grow again within that time. Failed requests are retried with full-jitter exponential backoff.
+ * <p>
+ * A small HEAD and a multi-megabyte GET take very different times, so latency is compared per operation: each
+ * operation keeps the lowest average latency of the windows it appeared in as its baseline. The baseline
+ * drifts up by {@link #BASELINE_DRIFT} every window, so one unusually fast window is forgotten and a lasting
+ * change in latency becomes the new baseline instead of holding the limit down. Throughput is counted the same
+ * way, as baseline latency completed per second, so a window of quick requests does not look faster than a
+ * window of large downloads.
+ * <p>
+ * Client-side failures are only retried when they come from network I/O or a timeout. Others, such as missing
+ * credentials, an unknown host or a local file error, fail at once and leave the limit alone.
+ * <p>
+ * The SDK's own retries should be disabled on the client so that throttling reaches this scheduler.
+ */
+@Slf4j
+public class S3RequestScheduler implements S3RequestSchedulerMXBean, AutoCloseable {
+
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double THROUGHPUT_TOLERANCE = 0.95;
+    private static final double BASELINE_DRIFT = 1.1;
+    private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int MAX_ATTEMPTS = 6;
+    private static final long BASE_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 20_000;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private final LongSupplier nanoClock;
+    private final Map<String, OperationLatency> operationLatencies = new HashMap<>();
+    private int windowCompletions;
+    private long windowStartNanos;
+    private double previousThroughput;
+    private long lastDecreaseNanos;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong throttledCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final ObjectName objectName;
+
+    /**
+     * @param name         The name used in logs and the JMX object name.
+     * @param initialLimit The number of requests allowed in flight at the start.
+     * @param maxLimit     The upper bound for the limit; keep it below the HTTP client's connection pool size.
+     */
+    public S3RequestScheduler(String name, int initialLimit, int maxLimit) {
+        this(name, initialLimit, maxLimit, System::nanoTime);
+    }
+
+    S3RequestScheduler(String name, int initialLimit, int maxLimit, LongSupplier nanoClock) {
+        if (initialLimit < 1 || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("S3 concurrency limits must satisfy 1 <= initial <= max");
+        }
+        this.name = name;
+        this.minLimit = 1;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+        this.nanoClock = nanoClock;
+        this.windowStartNanos = nanoClock.getAsLong();
+        this.lastDecreaseNanos = windowStartNanos - DECREASE_COOLDOWN_NANOS;
+        this.objectName = register();
+    }
+
+    /**
+     * Runs an S3 request once a permit is available, retrying retryable failures.
+     *
+     * @param operation The operation name used in log messages, e.g. {@code GetObject}.
+     * @param call      The request. It may run more than once, so it must be repeatable.
+     * @return The result of the request.
+     * @throws IOException if the request failed with an I/O error on its last attempt.
+     */
+    public <T> T execute(String operation, S3Call<T> call) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            acquire();
+            long start = nanoClock.getAsLong();
+            Outcome outcome = Outcome.ERROR;
+            try {
+                T result = call.call();
+                outcome = Outcome.SUCCESS;
+                return result;
+            } catch (SdkServiceException e) {
+                outcome = classify(e);
+                if (outcome == Outcome.FATAL || attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                log.warn("{} failed with status {} (attempt {} of {}): {}", operation, e.statusCode(), attempt, MAX_ATTEMPTS, e.getMessage());
+            } catch (SdkClientException e) {
+                outcome = classify(e);
+                if (outcome == Outcome.FATAL || attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                log.warn("{} failed (attempt {} of {}): {}", operation, attempt, MAX_ATTEMPTS, e.getMessage());
+            } catch (IOException e) {
+                outcome = classify(e);
+                if (outcome == Outcome.FATAL || attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                log.warn("{} failed (attempt {} of {}): {}", operation, attempt, MAX_ATTEMPTS, e.getMessage());
+            } finally {
+                release(operation, outcome, nanoClock.getAsLong() - start);
+            }
+
+            retryCount.incrementAndGet();
+            backoff(attempt);
+        }
+    }
+
+    @Override
+    public int getCurrentLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    @Override
+    public long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    @Override
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    @Override
+    public void close() {
+        log.info("S3 scheduler {}: {} requests, {} throttled, {} errors, {} retries, final limit {}",
+                name, getRequestCount(), getThrottledCount(), getErrorCount(), getRetryCount(), getCurrentLimit());
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                log.warn("Could not unregister S3 scheduler MBean {}: {}", objectName, e.getMessage());
+            }
+        }
+    }
+
+    private void acquire() throws InterruptedIOException {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                permitReleased.await();
+            }
+            inFlight++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an S3 request permit");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(String operation, Outcome outcome, long latencyNanos) {
+        requestCount.incrementAndGet();
+        lock.lock();
+        try {
+            inFlight--;
+            switch (outcome) {
+                case SUCCESS -> onSuccess(operation, latencyNanos);
+                case THROTTLED -> {
+                    throttledCount.incrementAndGet();
+                    decrease(0.5, "throttled");
+                }
+                case ERROR -> {
+                    errorCount.incrementAndGet();
+                    decrease(0.75, "request error");
+                }
+                case FATAL -> {
+                    // Client errors such as 404 say nothing about capacity.
+                }
+            }
+            permitReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a successful request as {@link #execute} does once it completes. For tests that drive the limit
+     * with chosen latencies.
+     */
+    void recordSuccess(String operation, long latencyNanos) {
+        lock.lock();
+        try {
+            onSuccess(operation, latencyNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onSuccess(String operation, long latencyNanos) {
+        OperationLatency operationLatency = operationLatencies.computeIfAbsent(operation, k -> new OperationLatency());
+        operationLatency.windowCompletions++;
+        operationLatency.windowLatencyNanos += latencyNanos;
+        windowCompletions++;
+        if (windowCompletions < Math.max(1, (int) limit)) {
+            return;
+        }
+
+        long now = nanoClock.getAsLong();
+        double latencyRatios = 0;
+        double baselineNanos = 0;
+        for (OperationLatency window : operationLatencies.values()) {
+            if (window.windowCompletions == 0) {
+                continue;
+            }
+            double averageLatency = (double) window.windowLatencyNanos / window.windowCompletions;
+            double baseline = window.baselineNanos > 0 ? window.baselineNanos : averageLatency;
+            latencyRatios += window.windowCompletions * averageLatency / Math.max(1, baseline);
+            baselineNanos += window.windowCompletions * baseline;
+            window.baselineNanos = Math.min(averageLatency, baseline * BASELINE_DRIFT);
+            window.windowCompletions = 0;
+            window.windowLatencyNanos = 0;
+        }
+        double latencyRatio = latencyRatios / windowCompletions;
+        double throughput = baselineNanos / Math.max(1, now - windowStartNanos);
+
+        if (latencyRatio > LATENCY_TOLERANCE) {
+            decrease(0.9, "latency rising");
+        } else if (throughput >= previousThroughput * THROUGHPUT_TOLERANCE && now - lastDecreaseNanos >= DECREASE_COOLDOWN_NANOS) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+
+        previousThroughput = throughput;
+        windowCompletions = 0;
+        windowStartNanos = now;
+    }
+
+    private void decrease(double factor, String reason) {
+        long now = nanoClock.getAsLong();
+        if (now - lastDecreaseNanos < DECREASE_COOLDOWN_NANOS) {
+            return;
+        }
+        lastDecreaseNanos = now;
+        double previous = limit;
+        limit = Math.max(minLimit, limit * factor);
+        if ((int) previous != (int) limit) {
+            log.info("S3 scheduler {}: {}, concurrency limit {} -> {}", name, reason, (int) previous, (int) limit);
+        }
+    }
+
+    private static Outcome classify(SdkServiceException e) {
+        if (e.isThrottlingException() || e.statusCode() == 503 || e.statusCode() == 429) {
+            return Outcome.THROTTLED;
+        }
+        if (e.statusCode() >= 500 || e.statusCode() == 408) {
+            return Outcome.ERROR;
+        }
+        return Outcome.FATAL;
+    }
+
+    /**
+     * Timeouts and network I/O errors are worth retrying; anything else on the client side, e.g. missing
+     * credentials or an invalid request, fails the same way on every attempt.
+     */
+    static Outcome classify(SdkClientException e) {
+        if (e instanceof ApiCallAttemptTimeoutException || e instanceof ApiCallTimeoutException) {
+            return Outcome.ERROR;
+        }
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException io) {
+                return classify(io);
+            }
+        }
+        return Outcome.FATAL;
+    }
+
+    static Outcome classify(IOException e) {
+        if (e instanceof UnknownHostException || e instanceof FileSystemException
+                || (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException))) {
+            return Outcome.FATAL;
+        }
+        return Outcome.ERROR;
+    }
+
+    private static void backoff(int attempt) throws InterruptedIOException {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while backing off an S3 retry");
+        }
+    }
+
+    private ObjectName register() {
+        try {
+            ObjectName objectName = new ObjectName("uk.co.threebugs:type=S3RequestScheduler,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            log.warn("Could not register S3 scheduler MBean for {}: {}", name, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The latency baseline of one operation and its completions in the current window.
+     */
+    private static class OperationLatency {
+        private double baselineNanos;
+        private int windowCompletions;
+        private long windowLatencyNanos;
+    }
+
+    enum Outcome {
+        SUCCESS, THROTTLED, ERROR, FATAL
+    }
+
+    /**
+     * An S3 request that can be repeated.
+     */
+    @FunctionalInterface
+    public interface S3Call<T> {
+        T call() throws IOException;
+    }
+}
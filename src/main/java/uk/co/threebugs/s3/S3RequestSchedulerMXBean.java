@@ -0,0 +1,23 @@
+package uk.co.threebugs.s3;
+
+/**
+ * JMX view of an {@link S3RequestScheduler}, registered as
+ * {@code uk.co.threebugs:type=S3RequestScheduler,name=<name>}.
+ */
+public interface S3RequestSchedulerMXBean {
+
+    /**
+     * The number of requests currently allowed in flight.
+     */
+    int getCurrentLimit();
+
+    int getInFlight();
+
+    long getRequestCount();
+
+    long getThrottledCount();
+
+    long getErrorCount();
+
+    long getRetryCount();
+}
@@ -0,0 +1,324 @@
+package uk.co.threebugs.summary;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A condition on the columns of a scenario summary, such as
+ * {@code dayofweek in (1, 2) and stop >= -500 and not (totalprofit < 0 or winrate < 40)}.
+ * <p>
+ * Conditions compare a column with a literal using {@code = != < <= > >=} (also {@code ==} and {@code <>}), or
+ * test membership with {@code in (...)}, and combine with {@code and}, {@code or}, {@code not} and parentheses.
+ * Numeric columns compare as numbers and never match an empty value; text columns compare as strings, and text
+ * literals may be quoted with {@code '} or {@code "}. Keywords and column names are case-insensitive.
+ * <p>
+ * A filter is evaluated a column at a time into a {@link BitSet} of matching rows.
+ */
+public final class SummaryFilter {
+
+    private final String expression;
+    private final Node root;
+
+    private SummaryFilter(String expression, Node root) {
+        this.expression = expression;
+        this.root = root;
+    }
+
+    /**
+     * @throws IllegalArgumentException If the expression is not a valid filter.
+     */
+    public static SummaryFilter parse(String expression) {
+        Parser parser = new Parser(expression);
+        Node root = parser.parseExpression();
+        parser.expectEnd();
+        return new SummaryFilter(expression, root);
+    }
+
+    /**
+     * The rows of {@code table} that match the filter.
+     *
+     * @throws IllegalArgumentException If the filter names a column the table does not have, or compares a
+     *                                  numeric column with text.
+     */
+    public BitSet evaluate(SummaryTable table) {
+        return root.evaluate(table);
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    private interface Node {
+        BitSet evaluate(SummaryTable table);
+    }
+
+    private enum Operator {
+        EQ, NE, LT, LE, GT, GE;
+
+        boolean test(int comparison) {
+            return switch (this) {
+                case EQ -> comparison == 0;
+                case NE -> comparison != 0;
+                case LT -> comparison < 0;
+                case LE -> comparison <= 0;
+                case GT -> comparison > 0;
+                case GE -> comparison >= 0;
+            };
+        }
+    }
+
+    /**
+     * A literal keeps its text and, if it is a number, its value.
+     */
+    private record Literal(String text, Double number) {
+    }
+
+    private record Comparison(String column, Operator operator, Literal literal) implements Node {
+
+        @Override
+        public BitSet evaluate(SummaryTable table) {
+            SummaryTable.Column values = table.column(column);
+            BitSet matches = new BitSet(table.rowCount());
+            if (values.isNumeric()) {
+                double[] numbers = values.numbers();
+                double literalValue = number(values, literal);
+                for (int row = 0; row < numbers.length; row++) {
+                    // NaN (an empty value) matches no comparison, including !=.
+                    if (!Double.isNaN(numbers[row]) && operator.test(Double.compare(numbers[row], literalValue))) {
+                        matches.set(row);
+                    }
+                }
+            } else {
+                String[] text = values.text();
+                for (int row = 0; row < text.length; row++) {
+                    if (operator.test(text[row].compareTo(literal.text()))) {
+                        matches.set(row);
+                    }
+                }
+            }
+            return matches;
+        }
+    }
+
+    private record In(String column, List<Literal> literals) implements Node {
+
+        @Override
+        public BitSet evaluate(SummaryTable table) {
+            BitSet matches = new BitSet(table.rowCount());
+            for (Literal literal : literals) {
+                matches.or(new Comparison(column, Operator.EQ, literal).evaluate(table));
+            }
+            return matches;
+        }
+    }
+
+    private record And(Node left, Node right) implements Node {
+
+        @Override
+        public BitSet evaluate(SummaryTable table) {
+            BitSet matches = left.evaluate(table);
+            matches.and(right.evaluate(table));
+            return matches;
+        }
+    }
+
+    private record Or(Node left, Node right) implements Node {
+
+        @Override
+        public BitSet evaluate(SummaryTable table) {
+            BitSet matches = left.evaluate(table);
+            matches.or(right.evaluate(table));
+            return matches;
+        }
+    }
+
+    private record Not(Node operand) implements Node {
+
+        @Override
+        public BitSet evaluate(SummaryTable table) {
+            BitSet matches = operand.evaluate(table);
+            matches.flip(0, table.rowCount());
+            return matches;
+        }
+    }
+
+    private static double number(SummaryTable.Column column, Literal literal) {
+        if (literal.number() == null) {
+            throw new IllegalArgumentException("Column '" + column.name() + "' is numeric and cannot be compared with '" + literal.text() + "'");
+        }
+        return literal.number();
+    }
+
+    /**
+     * A recursive descent parser for the grammar
+     * <pre>
+     * expression := and ("or" and)*
+     * and        := unary ("and" unary)*
+     * unary      := "not" unary | "(" expression ")" | column operator literal | column "in" "(" literal ("," literal)* ")"
+     * </pre>
+     */
+    private static final class Parser {
+
+        private final String input;
+        private int position;
+
+        Parser(String input) {
+            this.input = input;
+        }
+
+        Node parseExpression() {
+            Node node = parseAnd();
+            while (acceptKeyword("or")) {
+                node = new Or(node, parseAnd());
+            }
+            return node;
+        }
+
+        private Node parseAnd() {
+            Node node = parseUnary();
+            while (acceptKeyword("and")) {
+                node = new And(node, parseUnary());
+            }
+            return node;
+        }
+
+        private Node parseUnary() {
+            if (acceptKeyword("not")) {
+                return new Not(parseUnary());
+            }
+            if (accept("(")) {
+                Node node = parseExpression();
+                expect(")");
+                return node;
+            }
+
+            String column = parseIdentifier();
+            if (acceptKeyword("in")) {
+                expect("(");
+                List<Literal> literals = new ArrayList<>();
+                do {
+                    literals.add(parseLiteral());
+                } while (accept(","));
+                expect(")");
+                return new In(column, literals);
+            }
+            return new Comparison(column, parseOperator(), parseLiteral());
+        }
+
+        private Operator parseOperator() {
+            skipWhitespace();
+            // Two-character operators are tried first so "<=" is not read as "<".
+            if (accept("==") || accept("=")) {
+                return Operator.EQ;
+            }
+            if (accept("!=") || accept("<>")) {
+                return Operator.NE;
+            }
+            if (accept("<=")) {
+                return Operator.LE;
+            }
+            if (accept(">=")) {
+                return Operator.GE;
+            }
+            if (accept("<")) {
+                return Operator.LT;
+            }
+            if (accept(">")) {
+                return Operator.GT;
+            }
+            throw error("Expected a comparison operator");
+        }
+
+        private String parseIdentifier() {
+            skipWhitespace();
+            int start = position;
+            while (position < input.length() && isIdentifierPart(input.charAt(position))) {
+                position++;
+            }
+            if (start == position || Character.isDigit(input.charAt(start))) {
+                position = start;
+                throw error("Expected a column name");
+            }
+            return input.substring(start, position);
+        }
+
+        private Literal parseLiteral() {
+            skipWhitespace();
+            if (position < input.length() && (input.charAt(position) == '\'' || input.charAt(position) == '"')) {
+                char quote = input.charAt(position);
+                int end = input.indexOf(quote, position + 1);
+                if (end < 0) {
+                    throw error("Unterminated text literal");
+                }
+                String text = input.substring(position + 1, end);
+                position = end + 1;
+                return new Literal(text, null);
+            }
+
+            int start = position;
+            while (position < input.length() && (isIdentifierPart(input.charAt(position)) || "+-.".indexOf(input.charAt(position)) >= 0)) {
+                position++;
+            }
+            if (start == position) {
+                throw error("Expected a value");
+            }
+            String text = input.substring(start, position);
+            try {
+                return new Literal(text, Double.parseDouble(text));
+            } catch (NumberFormatException e) {
+                return new Literal(text, null);
+            }
+        }
+
+        void expectEnd() {
+            skipWhitespace();
+            if (position < input.length()) {
+                throw error("Unexpected input");
+            }
+        }
+
+        private void expect(String token) {
+            if (!accept(token)) {
+                throw error("Expected '" + token + "'");
+            }
+        }
+
+        private boolean accept(String token) {
+            skipWhitespace();
+            if (input.startsWith(token, position)) {
+                position += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private boolean acceptKeyword(String keyword) {
+            skipWhitespace();
+            int end = position + keyword.length();
+            if (end <= input.length()
+                    && input.substring(position, end).toLowerCase(Locale.ROOT).equals(keyword)
+                    && (end == input.length() || !isIdentifierPart(input.charAt(end)))) {
+                position = end;
+                return true;
+            }
+            return false;
+        }
+
+        private void skipWhitespace() {
+            while (position < input.length() && Character.isWhitespace(input.charAt(position))) {
+                position++;
+            }
+        }
+
+        private static boolean isIdentifierPart(char c) {
+            return Character.isLetterOrDigit(c) || c == '_';
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + position + " of trader filter: " + input);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package uk.co.threebugs.summary;
+
+import uk.co.threebugs.csv.CsvLine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A scenario summary held column by column. A column whose values are all numbers (or empty) is also parsed
+ * into a {@code double[]}, with empty values as {@code NaN}; any other column is only held as text. Filters
+ * and rankings read one column at a time instead of re-splitting CSV lines for every condition.
+ * <p>
+ * Column names are matched case-insensitively and without quotes.
+ */
+public final class SummaryTable {
+
+    static final String TRADER_ID_COLUMN = "traderid";
+
+    private final Map<String, Column> columns;
+    private final int rowCount;
+
+    private SummaryTable(Map<String, Column> columns, int rowCount) {
+        this.columns = columns;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * Parses a summary CSV as {@code Runner.filterDuplicates} returns it: a header line followed by one line per
+     * row. Blank lines are skipped and missing trailing fields are read as empty.
+     *
+     * @param csvData The summary CSV content.
+     * @return The summary as columns.
+     */
+    public static SummaryTable parse(String csvData) {
+        String[] lines = csvData.split("\\r?\\n");
+        if (lines.length == 0 || lines[0].isBlank()) {
+            return new SummaryTable(Collections.emptyMap(), 0);
+        }
+
+        String[] names = Arrays.stream(lines[0].split(",")).map(SummaryTable::columnName).toArray(String[]::new);
+        List<String[]> values = new ArrayList<>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            values.add(new String[lines.length - 1]);
+        }
+
+        int rows = 0;
+        CsvLine fields = new CsvLine();
+        for (int i = 1; i < lines.length; i++) {
+            if (lines[i].isBlank()) {
+                continue;
+            }
+            fields.reset(lines[i]);
+            for (int c = 0; c < names.length; c++) {
+                values.get(c)[rows] = c < fields.fieldCount() ? fields.trimmedField(c).replace("\"", "") : "";
+            }
+            rows++;
+        }
+
+        Map<String, Column> columns = new LinkedHashMap<>();
+        for (int c = 0; c < names.length; c++) {
+            columns.putIfAbsent(names[c], Column.of(names[c], Arrays.copyOf(values.get(c), rows)));
+        }
+        return new SummaryTable(columns, rows);
+    }
+
+    public int rowCount() {
+        return rowCount;
+    }
+
+    public List<String> columnNames() {
+        return List.copyOf(columns.keySet());
+    }
+
+    /**
+     * @throws IllegalArgumentException If the summary has no such column.
+     */
+    public Column column(String name) {
+        Column column = columns.get(columnName(name));
+        if (column == null) {
+            throw new IllegalArgumentException("Unknown summary column '" + name + "'; the summary has " + columnNames());
+        }
+        return column;
+    }
+
+    /**
+     * The trader of each row, as text.
+     *
+     * @throws IllegalArgumentException If the summary has no {@value #TRADER_ID_COLUMN} column.
+     */
+    public String[] traderIds() {
+        return column(TRADER_ID_COLUMN).text();
+    }
+
+    private static String columnName(String header) {
+        return header.trim().replace("\"", "").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * One column of the summary. Every column keeps its values as text; a numeric column also has them parsed.
+     */
+    public static final class Column {
+
+        private final String name;
+        private final double[] numbers;
+        private final String[] text;
+
+        private Column(String name, double[] numbers, String[] text) {
+            this.name = name;
+            this.numbers = numbers;
+            this.text = text;
+        }
+
+        static Column of(String name, String[] values) {
+            double[] numbers = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                if (values[i].isEmpty()) {
+                    numbers[i] = Double.NaN;
+                    continue;
+                }
+                try {
+                    numbers[i] = Double.parseDouble(values[i]);
+                } catch (NumberFormatException e) {
+                    return new Column(name, null, values);
+                }
+            }
+            return new Column(name, numbers, values);
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public boolean isNumeric() {
+            return numbers != null;
+        }
+
+        /**
+         * The values of a numeric column, with empty values as {@code NaN}, or null for a text column.
+         */
+        public double[] numbers() {
+            return numbers;
+        }
+
+        public String[] text() {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package uk.co.threebugs.summary;
+
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Chooses the traders whose trades are extracted from the rows of a scenario summary: the rows matching an
+ * optional {@link SummaryFilter}, optionally ranked by one column and cut to the best {@code top} traders.
+ *
+ * @param filter     The condition rows must match, or null to keep every row.
+ * @param rankBy     The column to rank rows by, or null to keep summary order.
+ * @param descending Whether higher values of {@code rankBy} rank first.
+ * @param top        The most traders to keep, or 0 for no limit.
+ */
+public record TraderSelection(SummaryFilter filter, String rankBy, boolean descending, int top) {
+
+    public TraderSelection {
+        if (top < 0) {
+            throw new IllegalArgumentException("Top must not be negative: " + top);
+        }
+        if (top > 0 && rankBy == null) {
+            throw new IllegalArgumentException("Top " + top + " needs a column to rank traders by");
+        }
+    }
+
+    /**
+     * Selects every trader in the summary.
+     */
+    public static TraderSelection all() {
+        return new TraderSelection(null, null, true, 0);
+    }
+
+    /**
+     * Builds a selection from command-line values.
+     *
+     * @param filter The filter expression, or null.
+     * @param rankBy A column name, optionally followed by {@code :asc} or {@code :desc} (the default), or null.
+     * @param top    The most traders to keep, or 0 for no limit.
+     * @throws IllegalArgumentException If the filter or ranking cannot be parsed.
+     */
+    public static TraderSelection of(String filter, String rankBy, int top) {
+        SummaryFilter summaryFilter = filter == null || filter.isBlank() ? null : SummaryFilter.parse(filter);
+        if (rankBy == null || rankBy.isBlank()) {
+            return new TraderSelection(summaryFilter, null, true, top);
+        }
+
+        String column = rankBy.trim();
+        boolean descending = true;
+        int colon = column.lastIndexOf(':');
+        if (colon >= 0) {
+            String direction = column.substring(colon + 1).trim().toLowerCase(Locale.ROOT);
+            column = column.substring(0, colon).trim();
+            descending = switch (direction) {
+                case "desc" -> true;
+                case "asc" -> false;
+                default -> throw new IllegalArgumentException("Rank direction must be asc or desc: " + rankBy);
+            };
+        }
+        return new TraderSelection(summaryFilter, column, descending, top);
+    }
+
+    /**
+     * Whether the selection keeps every trader, so the summary does not need to be parsed into columns.
+     */
+    public boolean selectsAll() {
+        return filter == null && top == 0;
+    }
+
+    /**
+     * The selected traders, best ranked first, or in summary order without a ranking. A trader with several
+     * matching rows is ranked by its best row.
+     *
+     * @throws IllegalArgumentException If the filter or ranking names a column the summary does not have.
+     */
+    public Set<String> select(SummaryTable table) {
+        BitSet rows = filter != null ? filter.evaluate(table) : allRows(table);
+        String[] traderIds = table.traderIds();
+
+        IntStream matching = rows.stream();
+        if (rankBy != null) {
+            matching = matching.boxed().sorted(rowOrder(table.column(rankBy))).mapToInt(Integer::intValue);
+        }
+
+        Set<String> selected = new LinkedHashSet<>();
+        for (int row : matching.toArray()) {
+            if (top > 0 && selected.size() == top) {
+                break;
+            }
+            selected.add(traderIds[row]);
+        }
+        return selected;
+    }
+
+    /**
+     * Orders rows by the ranking column, best first. Empty values rank last whatever the direction, and rows
+     * with equal values keep summary order.
+     */
+    private Comparator<Integer> rowOrder(SummaryTable.Column column) {
+        Comparator<Integer> order;
+        if (column.isNumeric()) {
+            double[] numbers = column.numbers();
+            Comparator<Integer> byValue = (a, b) -> Double.compare(numbers[a], numbers[b]);
+            order = Comparator.<Integer, Boolean>comparing(row -> Double.isNaN(numbers[row]))
+                    .thenComparing(descending ? byValue.reversed() : byValue);
+        } else {
+            String[] text = column.text();
+            Comparator<Integer> byValue = Comparator.comparing(row -> text[row]);
+            order = Comparator.<Integer, Boolean>comparing(row -> text[row].isEmpty())
+                    .thenComparing(descending ? byValue.reversed() : byValue);
+        }
+        return order;
+    }
+
+    private static BitSet allRows(SummaryTable table) {
+        BitSet rows = new BitSet(table.rowCount());
+        rows.set(0, table.rowCount());
+        return rows;
+    }
+
+    @Override
+    public String toString() {
+        return "TraderSelection[filter=" + filter + ", rankBy=" + rankBy + (descending ? " desc" : " asc") + ", top=" + top + "]";
+    }
+}
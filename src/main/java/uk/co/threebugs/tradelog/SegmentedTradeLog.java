@@ -0,0 +1,371 @@
+package uk.co.threebugs.tradelog;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * The raw trades of a scenario kept in a few large append-only segment files instead of one file per trader.
+ * Batches of trade lines from all traders are appended to the current segment, and an index maps each trader
+ * to the extents (segment, offset, length) holding its lines, in append order. The index is written to
+ * {@value #INDEX_FILE} when the log is closed, through a temporary file renamed into place.
+ * <p>
+ * Appends and reads may come from different threads, but a trader's lines are only complete once every batch
+ * holding them has been appended.
+ */
+@Slf4j
+public class SegmentedTradeLog implements Closeable {
+
+    public static final long DEFAULT_SEGMENT_SIZE = 256L * 1024 * 1024;
+    static final String INDEX_FILE = "trade-log.index";
+
+    private static final int INDEX_MAGIC = 0x54524c47; // "TRLG"
+    private static final int INDEX_VERSION = 1;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    private final Path dir;
+    private final String header;
+    private final long segmentSize;
+    private final Map<String, List<TradeExtent>> extents;
+
+    private int segmentCount;
+    private OutputStream segmentOut;
+    private long segmentPosition;
+    private boolean closed;
+
+    private SegmentedTradeLog(Path dir, String header, long segmentSize, int segmentCount, Map<String, List<TradeExtent>> extents) {
+        this.dir = dir;
+        this.header = header;
+        this.segmentSize = segmentSize;
+        this.segmentCount = segmentCount;
+        this.extents = extents;
+    }
+
+    /**
+     * Starts an empty log in {@code dir}, replacing any log already there, complete or not.
+     *
+     * @param dir         The directory that holds the segments and the index.
+     * @param header      The CSV header of the trade lines, stored in the index.
+     * @param segmentSize The size at which a new segment is started.
+     */
+    public static SegmentedTradeLog create(Path dir, String header, long segmentSize) throws IOException {
+        Files.createDirectories(dir);
+        // The index goes first, so a failure part way leaves an incomplete log rather than a wrong one.
+        Files.deleteIfExists(dir.resolve(INDEX_FILE));
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.filter(file -> isLogFile(file.getFileName().toString())).toList()) {
+                Files.delete(file);
+            }
+        }
+        return new SegmentedTradeLog(dir, header, segmentSize, 0, new LinkedHashMap<>());
+    }
+
+    /**
+     * Opens a log written by an earlier run for reading.
+     */
+    public static SegmentedTradeLog open(Path dir) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(dir.resolve(INDEX_FILE))))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                throw new IOException("Not a trade log index: " + dir.resolve(INDEX_FILE));
+            }
+            String header = in.readUTF();
+            int segmentCount = in.readInt();
+            int traderCount = in.readInt();
+            Map<String, List<TradeExtent>> extents = new LinkedHashMap<>(traderCount * 2);
+            for (int i = 0; i < traderCount; i++) {
+                String traderId = in.readUTF();
+                int extentCount = in.readInt();
+                List<TradeExtent> traderExtents = new ArrayList<>(extentCount);
+                for (int j = 0; j < extentCount; j++) {
+                    traderExtents.add(new TradeExtent(in.readInt(), in.readLong(), in.readLong()));
+                }
+                extents.put(traderId, traderExtents);
+            }
+            SegmentedTradeLog tradeLog = new SegmentedTradeLog(dir, header, DEFAULT_SEGMENT_SIZE, segmentCount, extents);
+            tradeLog.closed = true;
+            return tradeLog;
+        }
+    }
+
+    /**
+     * Whether {@code dir} holds a complete log.
+     */
+    public static boolean exists(Path dir) {
+        return Files.isRegularFile(dir.resolve(INDEX_FILE));
+    }
+
+    /**
+     * Whether {@code fileName} is a segment or index file of a trade log, complete or not.
+     */
+    public static boolean isLogFile(String fileName) {
+        return (fileName.startsWith("segment-") && fileName.endsWith(".log")) || fileName.startsWith(INDEX_FILE);
+    }
+
+    public String header() {
+        return header;
+    }
+
+    /**
+     * The traders with at least one line, in the order their first line was appended.
+     */
+    public synchronized List<String> traderIds() {
+        return List.copyOf(extents.keySet());
+    }
+
+    public synchronized List<TradeExtent> extents(String traderId) {
+        return List.copyOf(extents.getOrDefault(traderId, Collections.emptyList()));
+    }
+
+    /**
+     * Appends {@code data[offset, offset + length)}, which must be whole newline-terminated lines of one trader.
+     */
+    public synchronized void append(String traderId, byte[] data, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Trade log is closed: " + dir);
+        }
+        if (segmentOut == null || (segmentPosition > 0 && segmentPosition + length > segmentSize)) {
+            startSegment();
+        }
+
+        segmentOut.write(data, offset, length);
+        List<TradeExtent> traderExtents = extents.computeIfAbsent(traderId, k -> new ArrayList<>());
+        int segment = segmentCount - 1;
+        TradeExtent last = traderExtents.isEmpty() ? null : traderExtents.getLast();
+        if (last != null && last.segment() == segment && last.offset() + last.length() == segmentPosition) {
+            // The trader's previous batch ends where this one starts.
+            traderExtents.set(traderExtents.size() - 1, new TradeExtent(segment, last.offset(), last.length() + length));
+        } else {
+            traderExtents.add(new TradeExtent(segment, segmentPosition, length));
+        }
+        segmentPosition += length;
+    }
+
+    /**
+     * Streams the lines of one trader, without the header, in the order they were appended.
+     */
+    public InputStream openTrader(String traderId) throws IOException {
+        List<TradeExtent> traderExtents;
+        synchronized (this) {
+            if (segmentOut != null) {
+                segmentOut.flush();
+            }
+            traderExtents = extents(traderId);
+        }
+        return new ExtentInputStream(traderExtents);
+    }
+
+    /**
+     * Replays the lines of one trader, without the header, in the order they were appended. Close the iterator
+     * to release the segment file it has open.
+     */
+    public TradeRecordIterator records(String traderId) throws IOException {
+        return new TradeRecordIterator(new BufferedReader(new InputStreamReader(openTrader(traderId), StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Writes the header and lines of one trader to {@code file}, as the per-trader layout would have.
+     */
+    public void exportTrader(String traderId, Path file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), WRITE_BUFFER_SIZE);
+             InputStream in = openTrader(traderId)) {
+            out.write((header + "\n").getBytes(StandardCharsets.UTF_8));
+            in.transferTo(out);
+        }
+    }
+
+    /**
+     * Finishes the current segment and writes the index. Closing a log opened for reading does nothing.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (segmentOut != null) {
+            segmentOut.close();
+            segmentOut = null;
+        }
+        writeIndex();
+        log.info("Closed trade log {}: {} traders in {} segments", dir, extents.size(), segmentCount);
+    }
+
+    /**
+     * Closes the current segment without writing the index, so an incomplete log is never opened as complete.
+     */
+    public synchronized void abandon() throws IOException {
+        closed = true;
+        if (segmentOut != null) {
+            segmentOut.close();
+            segmentOut = null;
+        }
+    }
+
+    private void startSegment() throws IOException {
+        if (segmentOut != null) {
+            segmentOut.close();
+        }
+        segmentOut = new BufferedOutputStream(Files.newOutputStream(segmentFile(segmentCount), CREATE, WRITE, TRUNCATE_EXISTING), WRITE_BUFFER_SIZE);
+        segmentCount++;
+        segmentPosition = 0;
+    }
+
+    private void writeIndex() throws IOException {
+        // Write to a temporary file first so a failed run never leaves a truncated index behind.
+        Path tempIndex = dir.resolve(INDEX_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempIndex)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeUTF(header);
+            out.writeInt(segmentCount);
+            out.writeInt(extents.size());
+            for (Map.Entry<String, List<TradeExtent>> entry : extents.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (TradeExtent extent : entry.getValue()) {
+                    out.writeInt(extent.segment());
+                    out.writeLong(extent.offset());
+                    out.writeLong(extent.length());
+                }
+            }
+        }
+        Files.move(tempIndex, dir.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path segmentFile(int segment) {
+        return dir.resolve(String.format("segment-%05d.log", segment));
+    }
+
+    /**
+     * Reads a list of extents back to back, keeping the segment of the current extent open.
+     */
+    private class ExtentInputStream extends InputStream {
+
+        private final List<TradeExtent> extents;
+        private int nextExtent;
+        private FileChannel channel;
+        private int channelSegment = -1;
+        private long position;
+        private long remaining;
+
+        ExtentInputStream(List<TradeExtent> extents) {
+            this.extents = extents;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (remaining == 0) {
+                if (nextExtent == extents.size()) {
+                    return -1;
+                }
+                startExtent(extents.get(nextExtent++));
+            }
+            int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+            if (read < 0) {
+                throw new EOFException("Trade log segment " + segmentFile(channelSegment) + " is shorter than its index");
+            }
+            position += read;
+            remaining -= read;
+            return read;
+        }
+
+        private void startExtent(TradeExtent extent) throws IOException {
+            if (extent.segment() != channelSegment) {
+                close();
+                channel = FileChannel.open(segmentFile(extent.segment()), READ);
+                channelSegment = extent.segment();
+            }
+            position = extent.offset();
+            remaining = extent.length();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+                channelSegment = -1;
+            }
+        }
+    }
+
+    /**
+     * The lines of one trader. {@link #hasNext()} and {@link #next()} rethrow read errors as
+     * {@link UncheckedIOException}.
+     */
+    public static class TradeRecordIterator implements Iterator<String>, Closeable {
+
+        private final BufferedReader reader;
+        private String next;
+
+        TradeRecordIterator(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                try {
+                    next = reader.readLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String line = next;
+            next = null;
+            return line;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
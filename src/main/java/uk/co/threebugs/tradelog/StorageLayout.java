@@ -0,0 +1,15 @@
+package uk.co.threebugs.tradelog;
+
+/**
+ * How the raw trades of a scenario are stored before conversion.
+ */
+public enum StorageLayout {
+    /**
+     * One CSV file per trader.
+     */
+    FILES,
+    /**
+     * A {@link SegmentedTradeLog}: a few large segment files shared by all traders and a per-trader index.
+     */
+    SEGMENTED
+}
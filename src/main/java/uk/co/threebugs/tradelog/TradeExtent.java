@@ -0,0 +1,11 @@
+package uk.co.threebugs.tradelog;
+
+/**
+ * A run of one trader's lines in a segment of a {@link SegmentedTradeLog}.
+ *
+ * @param segment The segment number.
+ * @param offset  The byte offset of the first line in the segment.
+ * @param length  The number of bytes, ending with a newline.
+ */
+public record TradeExtent(int segment, long offset, long length) {
+}
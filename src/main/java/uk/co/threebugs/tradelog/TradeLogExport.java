@@ -0,0 +1,41 @@
+package uk.co.threebugs.tradelog;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes per-trader raw CSV files from a segmented trade log, for consumers that need the file-per-trader
+ * layout. Without trader IDs every trader is exported.
+ *
+ * <pre>java -cp app.jar uk.co.threebugs.tradelog.TradeLogExport &lt;rawDir&gt; &lt;outputDir&gt; [traderId...]</pre>
+ */
+@Slf4j
+public class TradeLogExport {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: TradeLogExport <rawDir> <outputDir> [traderId...]");
+            System.exit(1);
+        }
+        Path rawDir = Paths.get(args[0]);
+        Path outputDir = Paths.get(args[1]);
+        if (!SegmentedTradeLog.exists(rawDir)) {
+            throw new IllegalArgumentException("No segmented trade log in: " + rawDir.toAbsolutePath());
+        }
+
+        Files.createDirectories(outputDir);
+        try (SegmentedTradeLog tradeLog = SegmentedTradeLog.open(rawDir)) {
+            List<String> traderIds = args.length > 2 ? Arrays.asList(args).subList(2, args.length) : tradeLog.traderIds();
+            for (String traderId : traderIds) {
+                tradeLog.exportTrader(traderId, outputDir.resolve(traderId + ".csv"));
+            }
+            log.info("Exported {} traders from {} to {}", traderIds.size(), rawDir, outputDir);
+        }
+    }
+}
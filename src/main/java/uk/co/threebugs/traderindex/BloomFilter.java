@@ -0,0 +1,97 @@
+package uk.co.threebugs.traderindex;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A Bloom filter over UTF-8 encoded trader IDs. Bit positions come from two 64-bit hashes of the bytes combined
+ * by double hashing, so a lookup hashes the ID once whatever the number of hash functions.
+ */
+final class BloomFilter {
+
+    private final long[] bits;
+    private final int hashCount;
+
+    private BloomFilter(long[] bits, int hashCount) {
+        this.bits = bits;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * @param expectedEntries   The number of distinct entries that will be added.
+     * @param falsePositiveRate The rate of false positives wanted at {@code expectedEntries}, e.g. 0.01.
+     */
+    static BloomFilter create(int expectedEntries, double falsePositiveRate) {
+        int entries = Math.max(1, expectedEntries);
+        long bitCount = (long) Math.ceil(-entries * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.max(1, (bitCount + 63) / 64);
+        int hashCount = (int) Math.max(1, Math.round((double) words * 64 / entries * Math.log(2)));
+        return new BloomFilter(new long[words], hashCount);
+    }
+
+    void put(byte[] buf, int from, int to) {
+        long h1 = hash(buf, from, to);
+        long h2 = mix(h1) | 1;
+        long bitCount = (long) bits.length * 64;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(byte[] key) {
+        long h1 = hash(key, 0, key.length);
+        long h2 = mix(h1) | 1;
+        long bitCount = (long) bits.length * 64;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int sizeInBytes() {
+        return bits.length * Long.BYTES;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(hashCount);
+        out.writeInt(bits.length);
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+    }
+
+    static BloomFilter read(DataInputStream in) throws IOException {
+        int hashCount = in.readInt();
+        long[] bits = new long[in.readInt()];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = in.readLong();
+        }
+        return new BloomFilter(bits, hashCount);
+    }
+
+    /**
+     * 64-bit FNV-1a, finished with {@link #mix(long)} so that similar short IDs spread over the whole range.
+     */
+    private static long hash(byte[] buf, int from, int to) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = from; i < to; i++) {
+            h ^= buf[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
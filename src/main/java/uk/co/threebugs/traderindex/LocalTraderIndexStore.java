@@ -0,0 +1,54 @@
+package uk.co.threebugs.traderindex;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Sidecars kept as files under a root directory, at the object key plus {@value TraderIndexStore#SUFFIX}.
+ */
+@Slf4j
+class LocalTraderIndexStore implements TraderIndexStore {
+
+    private final Path root;
+
+    LocalTraderIndexStore(Path root) {
+        this.root = root;
+    }
+
+    @Override
+    public TraderIndex load(String objectKey, String eTag) throws IOException {
+        TraderIndex index;
+        try {
+            index = TraderIndex.fromBytes(Files.readAllBytes(sidecarFile(objectKey)));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable trader index {}: {}", sidecarFile(objectKey), e.getMessage());
+            return null;
+        }
+        return index.eTag().equals(eTag) ? index : null;
+    }
+
+    @Override
+    public void save(TraderIndex index) throws IOException {
+        Path file = sidecarFile(index.objectKey());
+        Files.createDirectories(file.getParent());
+        // Write to a temporary file first so a concurrent reader never sees a partial sidecar.
+        Path tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tempFile, index.toBytes());
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private Path sidecarFile(String objectKey) {
+        return root.resolve(objectKey + SUFFIX);
+    }
+}
@@ -0,0 +1,62 @@
+package uk.co.threebugs.traderindex;
+
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import uk.co.threebugs.s3.S3RequestScheduler;
+
+import java.io.IOException;
+
+/**
+ * Sidecars kept in the trades bucket, at the object key plus {@value TraderIndexStore#SUFFIX}. Listings of trade
+ * objects only pick up {@code .lzo} keys, so the sidecars do not show up as trade objects.
+ */
+@Slf4j
+class S3TraderIndexStore implements TraderIndexStore {
+
+    private final S3Client s3Client;
+    private final S3RequestScheduler s3Scheduler;
+    private final String bucket;
+
+    S3TraderIndexStore(S3Client s3Client, S3RequestScheduler s3Scheduler, String bucket) {
+        this.s3Client = s3Client;
+        this.s3Scheduler = s3Scheduler;
+        this.bucket = bucket;
+    }
+
+    @Override
+    public TraderIndex load(String objectKey, String eTag) throws IOException {
+        GetObjectRequest request = GetObjectRequest.builder().bucket(bucket).key(objectKey + SUFFIX).build();
+        ResponseBytes<?> bytes;
+        try {
+            bytes = s3Scheduler.execute("GetObject", () -> s3Client.getObject(request, ResponseTransformer.toBytes()));
+        } catch (NoSuchKeyException e) {
+            return null;
+        }
+
+        TraderIndex index;
+        try {
+            index = TraderIndex.fromBytes(bytes.asByteArray());
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable trader index s3://{}/{}{}: {}", bucket, objectKey, SUFFIX, e.getMessage());
+            return null;
+        }
+        return index.eTag().equals(eTag) ? index : null;
+    }
+
+    @Override
+    public void save(TraderIndex index) throws IOException {
+        PutObjectRequest request = PutObjectRequest.builder()
+                .bucket(bucket)
+                .key(index.objectKey() + SUFFIX)
+                .contentType("application/octet-stream")
+                .build();
+        byte[] data = index.toBytes();
+        s3Scheduler.execute("PutObject", () -> s3Client.putObject(request, RequestBody.fromBytes(data)));
+    }
+}
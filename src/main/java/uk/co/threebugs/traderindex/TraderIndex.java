@@ -0,0 +1,236 @@
+package uk.co.threebugs.traderindex;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * The sidecar of one trade object: which traders have lines in it, and how many lines it has. Objects with up to
+ * {@value #EXACT_LIMIT} traders keep the sorted trader IDs; larger ones keep a Bloom filter with a
+ * {@value #FALSE_POSITIVE_RATE} false positive rate. Either way {@link #mightContainAny(Collection)} never
+ * answers false for an object that holds one of the traders, so an object it rules out can be skipped.
+ * <p>
+ * The sidecar records the ETag of the object it was built from; an object that has been rewritten since gets a
+ * new sidecar.
+ */
+public final class TraderIndex {
+
+    static final int EXACT_LIMIT = 10_000;
+    static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private static final int MAGIC = 0x54524958; // "TRIX"
+    private static final int VERSION = 1;
+    private static final byte EXACT = 0;
+    private static final byte BLOOM = 1;
+
+    private final String objectKey;
+    private final String eTag;
+    private final long lineCount;
+    private final int traderCount;
+    private final String[] sortedTraderIds;
+    private final BloomFilter bloomFilter;
+
+    private TraderIndex(String objectKey, String eTag, long lineCount, int traderCount, String[] sortedTraderIds, BloomFilter bloomFilter) {
+        this.objectKey = objectKey;
+        this.eTag = eTag;
+        this.lineCount = lineCount;
+        this.traderCount = traderCount;
+        this.sortedTraderIds = sortedTraderIds;
+        this.bloomFilter = bloomFilter;
+    }
+
+    public String objectKey() {
+        return objectKey;
+    }
+
+    public String eTag() {
+        return eTag;
+    }
+
+    /**
+     * The number of trade lines in the object, without the header.
+     */
+    public long lineCount() {
+        return lineCount;
+    }
+
+    /**
+     * The number of distinct traders in the object.
+     */
+    public int traderCount() {
+        return traderCount;
+    }
+
+    public boolean isExact() {
+        return sortedTraderIds != null;
+    }
+
+    /**
+     * Whether the object may hold lines of {@code traderId}. False answers are always right; with a Bloom
+     * filter, true answers may not be.
+     */
+    public boolean mightContain(String traderId) {
+        if (sortedTraderIds != null) {
+            return Arrays.binarySearch(sortedTraderIds, traderId) >= 0;
+        }
+        return bloomFilter.mightContain(traderId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Whether the object may hold lines of any of {@code traderIds}.
+     */
+    public boolean mightContainAny(Collection<String> traderIds) {
+        for (String traderId : traderIds) {
+            if (mightContain(traderId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(objectKey);
+            out.writeUTF(eTag);
+            out.writeLong(lineCount);
+            out.writeInt(traderCount);
+            if (sortedTraderIds != null) {
+                out.writeByte(EXACT);
+                out.writeInt(sortedTraderIds.length);
+                for (String traderId : sortedTraderIds) {
+                    out.writeUTF(traderId);
+                }
+            } else {
+                out.writeByte(BLOOM);
+                bloomFilter.write(out);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing to a byte array failed", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @throws IOException If {@code data} is not a trader index sidecar.
+     */
+    public static TraderIndex fromBytes(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a trader index sidecar");
+            }
+            String objectKey = in.readUTF();
+            String eTag = in.readUTF();
+            long lineCount = in.readLong();
+            int traderCount = in.readInt();
+            byte kind = in.readByte();
+            if (kind == EXACT) {
+                String[] traderIds = new String[in.readInt()];
+                for (int i = 0; i < traderIds.length; i++) {
+                    traderIds[i] = in.readUTF();
+                }
+                return new TraderIndex(objectKey, eTag, lineCount, traderCount, traderIds, null);
+            }
+            if (kind == BLOOM) {
+                return new TraderIndex(objectKey, eTag, lineCount, traderCount, null, BloomFilter.read(in));
+            }
+            throw new IOException("Unknown trader index kind " + kind);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TraderIndex[" + objectKey + ", " + traderCount + " traders, " + lineCount + " lines, "
+                + (isExact() ? "exact" : "bloom " + bloomFilter.sizeInBytes() + " bytes") + "]";
+    }
+
+    /**
+     * Collects the distinct trader IDs of an object while its lines are routed. IDs are added as UTF-8 byte
+     * slices, so a repeated ID costs a hash lookup and no allocation. Not thread-safe.
+     */
+    public static final class Builder {
+
+        private byte[][] keys = new byte[64][];
+        private int[] slots = new int[128];
+        private int size;
+        private long lineCount;
+
+        /**
+         * Records one line of the trader whose UTF-8 encoded ID is {@code buf[from, to)}.
+         */
+        public void addLine(byte[] buf, int from, int to) {
+            lineCount++;
+            int mask = slots.length - 1;
+            int slot = hash(buf, from, to) & mask;
+            int entry;
+            while ((entry = slots[slot]) != 0) {
+                byte[] key = keys[entry - 1];
+                if (Arrays.equals(key, 0, key.length, buf, from, to)) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            keys[size] = Arrays.copyOfRange(buf, from, to);
+            // Slots hold index + 1 so that zero marks an empty slot.
+            slots[slot] = ++size;
+            if (size * 2 > slots.length) {
+                rehash(slots.length * 2);
+            }
+        }
+
+        /**
+         * Records one line of {@code traderId}.
+         */
+        public void addLine(String traderId) {
+            byte[] bytes = traderId.getBytes(StandardCharsets.UTF_8);
+            addLine(bytes, 0, bytes.length);
+        }
+
+        public TraderIndex build(String objectKey, String eTag) {
+            if (size <= EXACT_LIMIT) {
+                String[] traderIds = new String[size];
+                for (int i = 0; i < size; i++) {
+                    traderIds[i] = new String(keys[i], StandardCharsets.UTF_8);
+                }
+                Arrays.sort(traderIds);
+                return new TraderIndex(objectKey, eTag, lineCount, size, traderIds, null);
+            }
+            BloomFilter bloomFilter = BloomFilter.create(size, FALSE_POSITIVE_RATE);
+            for (int i = 0; i < size; i++) {
+                bloomFilter.put(keys[i], 0, keys[i].length);
+            }
+            return new TraderIndex(objectKey, eTag, lineCount, size, null, bloomFilter);
+        }
+
+        private void rehash(int capacity) {
+            slots = new int[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < size; i++) {
+                int slot = hash(keys[i], 0, keys[i].length) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = i + 1;
+            }
+        }
+
+        private static int hash(byte[] buf, int from, int to) {
+            int h = 0;
+            for (int i = from; i < to; i++) {
+                h = 31 * h + buf[i];
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+}
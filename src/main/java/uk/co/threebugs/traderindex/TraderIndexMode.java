@@ -0,0 +1,19 @@
+package uk.co.threebugs.traderindex;
+
+/**
+ * Where the {@link TraderIndex} sidecars of trade objects are kept.
+ */
+public enum TraderIndexMode {
+    /**
+     * No sidecars: every trade object is downloaded and decoded.
+     */
+    OFF,
+    /**
+     * Sidecars under a local directory, mirroring the object keys.
+     */
+    LOCAL,
+    /**
+     * Sidecars in the trades bucket, next to the objects they describe.
+     */
+    S3
+}
@@ -0,0 +1,70 @@
+package uk.co.threebugs.traderindex;
+
+import software.amazon.awssdk.services.s3.S3Client;
+import uk.co.threebugs.s3.S3RequestScheduler;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Loads and saves the {@link TraderIndex} sidecars of trade objects.
+ */
+public interface TraderIndexStore {
+
+    /**
+     * The suffix added to an object key to name its sidecar.
+     */
+    String SUFFIX = ".traders";
+
+    /**
+     * @param objectKey The key of the trade object.
+     * @param eTag      The current ETag of the object, as listed.
+     * @return The sidecar of the object, or null if there is none or it was built from an older version of the
+     * object.
+     */
+    TraderIndex load(String objectKey, String eTag) throws IOException;
+
+    void save(TraderIndex index) throws IOException;
+
+    /**
+     * Whether sidecars are kept at all; without them every object is downloaded and no sidecar is built.
+     */
+    default boolean enabled() {
+        return true;
+    }
+
+    /**
+     * Keeps no sidecars.
+     */
+    static TraderIndexStore none() {
+        return new TraderIndexStore() {
+            @Override
+            public TraderIndex load(String objectKey, String eTag) {
+                return null;
+            }
+
+            @Override
+            public void save(TraderIndex index) {
+            }
+
+            @Override
+            public boolean enabled() {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Keeps sidecars under {@code root}, at the object key plus {@value #SUFFIX}.
+     */
+    static TraderIndexStore directory(Path root) {
+        return new LocalTraderIndexStore(root);
+    }
+
+    /**
+     * Keeps sidecars in {@code bucket}, at the object key plus {@value #SUFFIX}.
+     */
+    static TraderIndexStore s3(S3Client s3Client, S3RequestScheduler s3Scheduler, String bucket) {
+        return new S3TraderIndexStore(s3Client, s3Scheduler, bucket);
+    }
+}
@@ -0,0 +1,31 @@
+package uk.co.threebugs;
+
+import org.junit.jupiter.api.Test;
+import uk.co.threebugs.perf.PerformanceBudget;
+import uk.co.threebugs.perf.TradeFixtures;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static uk.co.threebugs.perf.GoldenFiles.assertMatchesGolden;
+
+class RunnerPerformanceTest {
+
+    private static final List<String> FILTER_COLUMNS = List.of("dayofweek", "hourofday", "stop", "limit", "tickoffset", "tradeduration", "outoftime");
+
+    @Test
+    void filtersDuplicatesLikeTheGoldenFile() throws Exception {
+        String filtered = Runner.filterDuplicates(TradeFixtures.summaryCsv(42, 300), FILTER_COLUMNS);
+
+        assertMatchesGolden("filtered-summary.csv", filtered.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void filterDuplicatesStaysWithinAllocationAndThroughputBudget() throws Exception {
+        int records = 100_000;
+        String csv = TradeFixtures.summaryCsv(7, records);
+
+        PerformanceBudget budget = PerformanceBudget.of("filterDuplicates", 1_500, 200_000);
+        budget.check(budget.measure(records, PerformanceBudget.Step.none(), () -> Runner.filterDuplicates(csv, FILTER_COLUMNS)));
+    }
+}
@@ -0,0 +1,59 @@
+package uk.co.threebugs.analysis;
+
+import org.junit.jupiter.api.Test;
+import uk.co.threebugs.memory.MemoryBudget;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RoutedTradeBytesTest {
+
+    @Test
+    void reservesOnlyForTouchedTradersAndListsThemInRequestedOrder() throws Exception {
+        List<String> requested = IntStream.range(0, 100_000).mapToObj(i -> String.valueOf(1_000_000 + i)).toList();
+        TraderIdLookup traders = new TraderIdLookup(requested);
+        try (MemoryBudget budget = new MemoryBudget("test-sparse-batch", 1 << 20)) {
+            RoutedTradeBytes routed = new RoutedTradeBytes(traders, budget);
+
+            int[] touched = {99_999, 7, 50_000, 7, 3, 99_999, 12, 40, 41, 42, 43, 44};
+            for (int trader : touched) {
+                byte[] line = ("line," + requested.get(trader)).getBytes(StandardCharsets.UTF_8);
+                assertThat(routed.tryAppendLine(trader, line, 0, line.length)).isTrue();
+            }
+
+            // Ten distinct traders: ten initial buffers and sixteen slots, nothing per requested trader.
+            assertThat(budget.getPeakReservedBytes()).isLessThan(11 * 4096L);
+            List<String> order = new ArrayList<>();
+            routed.forEachTrader((traderId, data, length, lineCount) -> {
+                order.add(traderId);
+                assertThat(lineCount).isEqualTo(traderId.equals(requested.get(7)) || traderId.equals(requested.get(99_999)) ? 2 : 1);
+            });
+            assertThat(order).containsExactly(requested.get(3), requested.get(7), requested.get(12), requested.get(40), requested.get(41),
+                    requested.get(42), requested.get(43), requested.get(44), requested.get(50_000), requested.get(99_999));
+
+            routed.release();
+            assertThat(routed.isEmpty()).isTrue();
+            assertThat(routed.byteCount()).isEqualTo(0L);
+        }
+    }
+
+    @Test
+    void slotGrowthIsDeniedWhenTheBudgetIsFull() {
+        TraderIdLookup traders = new TraderIdLookup(List.of("1", "2"));
+        try (MemoryBudget budget = new MemoryBudget("test-sparse-deny", 100)) {
+            RoutedTradeBytes routed = new RoutedTradeBytes(traders, budget);
+            byte[] line = "x".getBytes(StandardCharsets.UTF_8);
+
+            assertThat(routed.tryAppendLine(0, line, 0, line.length)).isFalse();
+            assertThat(routed.isEmpty()).isTrue();
+            routed.appendLine(0, line, 0, line.length);
+            assertThat(routed.isEmpty()).isFalse();
+            routed.release();
+            assertThat(budget.getReservedBytes()).isEqualTo(0L);
+        }
+    }
+}
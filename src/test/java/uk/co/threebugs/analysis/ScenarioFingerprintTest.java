@@ -0,0 +1,95 @@
+package uk.co.threebugs.analysis;
+
+import org.junit.jupiter.api.Test;
+import uk.co.threebugs.archive.ArchiveSettings;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ScenarioFingerprintTest {
+
+    private static final FileTime MODIFIED = FileTime.fromMillis(1_700_000_000_000L);
+
+    @Test
+    void sameFilesGiveTheSameFingerprintInAnyDirectory() throws Exception {
+        Path first = scenario();
+        Path second = scenario();
+        try {
+            String fingerprint = ScenarioFingerprint.compute(first, ArchiveSettings.defaults());
+            assertThat(fingerprint.length()).isEqualTo(64);
+            assertThat(ScenarioFingerprint.compute(first, ArchiveSettings.defaults())).isEqualTo(fingerprint);
+            assertThat(ScenarioFingerprint.compute(second, ArchiveSettings.defaults())).isEqualTo(fingerprint);
+        } finally {
+            deleteRecursively(first);
+            deleteRecursively(second);
+        }
+    }
+
+    @Test
+    void sizeOrModificationTimeChangesTheFingerprint() throws Exception {
+        Path scenarioDir = scenario();
+        try {
+            Path trades = scenarioDir.resolve("formatted-trades/1001.csv");
+            String original = ScenarioFingerprint.compute(scenarioDir, ArchiveSettings.defaults());
+
+            Files.setLastModifiedTime(trades, FileTime.fromMillis(MODIFIED.toMillis() + 1000));
+            String touched = ScenarioFingerprint.compute(scenarioDir, ArchiveSettings.defaults());
+            assertThat(touched.equals(original)).isFalse();
+
+            Files.writeString(trades, "tradeId,profit\n1,2\n3,4\n");
+            Files.setLastModifiedTime(trades, MODIFIED);
+            String resized = ScenarioFingerprint.compute(scenarioDir, ArchiveSettings.defaults());
+            assertThat(resized.equals(original)).isFalse();
+
+            Files.writeString(trades, "tradeId,profit\n1,2\n");
+            Files.setLastModifiedTime(trades, MODIFIED);
+            assertThat(ScenarioFingerprint.compute(scenarioDir, ArchiveSettings.defaults())).isEqualTo(original);
+        } finally {
+            deleteRecursively(scenarioDir);
+        }
+    }
+
+    @Test
+    void addedFileChangesTheFingerprint() throws Exception {
+        Path scenarioDir = scenario();
+        try {
+            String original = ScenarioFingerprint.compute(scenarioDir, ArchiveSettings.defaults());
+            Path added = scenarioDir.resolve("formatted-trades/1003.csv");
+            Files.writeString(added, "");
+            Files.setLastModifiedTime(added, MODIFIED);
+            assertThat(ScenarioFingerprint.compute(scenarioDir, ArchiveSettings.defaults()).equals(original)).isFalse();
+        } finally {
+            deleteRecursively(scenarioDir);
+        }
+    }
+
+    /**
+     * A scenario directory with fixed contents and modification times.
+     */
+    private static Path scenario() throws IOException {
+        Path scenarioDir = Files.createTempDirectory("scenario");
+        Files.createDirectories(scenarioDir.resolve("formatted-trades"));
+        write(scenarioDir.resolve("summary.csv"), "traderId,profit\n1001,2\n1002,-1\n");
+        write(scenarioDir.resolve("formatted-trades/1001.csv"), "tradeId,profit\n1,2\n");
+        write(scenarioDir.resolve("formatted-trades/1002.csv"), "tradeId,profit\n2,-1\n");
+        return scenarioDir;
+    }
+
+    private static void write(Path file, String contents) throws IOException {
+        Files.writeString(file, contents);
+        Files.setLastModifiedTime(file, MODIFIED);
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted((a, b) -> b.getNameCount() - a.getNameCount()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package uk.co.threebugs.analysis;
+
+import org.junit.jupiter.api.Test;
+import uk.co.threebugs.archive.ArchiveSettings;
+import uk.co.threebugs.archive.ArchiveWriter;
+import uk.co.threebugs.conversion.RawTrades;
+import uk.co.threebugs.tradelog.SegmentedTradeLog;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StorageLayoutTest {
+
+    @Test
+    void segmentedLayoutReadsAndArchivesTheSameBytesAsTheFilesLayout() throws Exception {
+        Path filesDir = Files.createTempDirectory("raw-files");
+        Path segmentedDir = Files.createTempDirectory("raw-segmented");
+        try {
+            try (SegmentedTradeLog tradeLog = SegmentedTradeLog.create(segmentedDir, S3TradesProcessor.TRADES_HEADER, 512)) {
+                Random random = new Random(3);
+                for (int batch = 0; batch < 200; batch++) {
+                    String traderId = String.valueOf(1000 + random.nextInt(6));
+                    StringBuilder lines = new StringBuilder();
+                    int lineCount = 1 + random.nextInt(20);
+                    for (int i = 0; i < lineCount; i++) {
+                        lines.append(batch).append('-').append(i).append(',').append(traderId).append(",5,2,14,3,11,2024-03-14 09:30:00,1.5,1.4,CLOSED,1.5,1.6,LONG\n");
+                    }
+                    byte[] data = lines.toString().getBytes(StandardCharsets.UTF_8);
+                    // The writers processTrades uses for each layout.
+                    S3TradesProcessor.appendTrades(filesDir, traderId, data, data.length, lineCount);
+                    tradeLog.append(traderId, data, 0, data.length);
+                }
+            }
+
+            RawTrades files = RawTrades.files(Arrays.asList(filesDir.toFile().listFiles()));
+            try (SegmentedTradeLog tradeLog = SegmentedTradeLog.open(segmentedDir)) {
+                RawTrades log = RawTrades.log(tradeLog);
+                assertThat(log.traderIds()).containsExactlyInAnyOrder(files.traderIds().toArray(String[]::new));
+                for (String traderId : files.traderIds()) {
+                    assertThat(read(log, traderId)).isEqualTo(read(files, traderId));
+                }
+            }
+
+            Map<String, byte[]> filesArchive = archive(filesDir);
+            Map<String, byte[]> segmentedArchive = archive(segmentedDir);
+            assertThat(segmentedArchive.keySet()).isEqualTo(filesArchive.keySet());
+            for (Map.Entry<String, byte[]> entry : filesArchive.entrySet()) {
+                assertThat(segmentedArchive.get(entry.getKey())).as("entry %s", entry.getKey()).isEqualTo(entry.getValue());
+                assertThat(entry.getValue()).isEqualTo(Files.readAllBytes(filesDir.resolve(entry.getKey().substring("raw/".length()))));
+            }
+        } finally {
+            deleteRecursively(filesDir);
+            deleteRecursively(segmentedDir);
+        }
+    }
+
+    private static String read(RawTrades rawTrades, String traderId) throws IOException {
+        StringBuilder contents = new StringBuilder();
+        try (BufferedReader reader = rawTrades.open(traderId)) {
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                contents.append(buffer, 0, read);
+            }
+        }
+        return contents.toString();
+    }
+
+    private static Map<String, byte[]> archive(Path rawDir) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ArchiveWriter writer = ArchiveSettings.defaults().open(out)) {
+            writer.addDirectory("raw/", rawDir);
+        }
+        Map<String, byte[]> entries = new TreeMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                entries.put(entry.getName(), in.readAllBytes());
+            }
+        }
+        return entries;
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted((a, b) -> b.getNameCount() - a.getNameCount()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package uk.co.threebugs.analysis;
+
+import org.junit.jupiter.api.Test;
+import uk.co.threebugs.memory.MemoryBudget;
+import uk.co.threebugs.traderindex.TraderIndex;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TradeLineRouterTest {
+
+    @Test
+    void bytesAndLinesModesRouteTheSameBytesToEveryTrader() throws Exception {
+        // Four requested traders give an eight-slot table; three of the IDs below share a slot, and one of those
+        // is not requested, so lookups have to walk past other traders' entries.
+        List<String> colliding = idsInOneSlot(3, 7);
+        String a = colliding.get(0);
+        String b = colliding.get(1);
+        String unrequested = colliding.get(2);
+        List<String> requested = new ArrayList<>(List.of(a, b));
+        for (int id = 1000; requested.size() < 4; id++) {
+            String candidate = String.valueOf(id);
+            if (!colliding.contains(candidate)) {
+                requested.add(candidate);
+            }
+        }
+        String c = requested.get(2);
+        String d = requested.get(3);
+
+        StringBuilder trades = new StringBuilder("tradeId,traderId,timeToPlace\r\n");
+        trades.append("1,").append(a).append(",5\r\n");
+        trades.append("\n");
+        trades.append("   \r\n");
+        trades.append("2, ").append(b).append(" ,6\n");
+        trades.append("3,").append(c).append("\n");
+        trades.append("4\n");
+        trades.append("5,").append(unrequested).append(",7\n");
+        trades.append("6,\t").append(d).append("\t,8\r\n");
+        // Longer than the router's initial buffer.
+        trades.append("7,").append(a).append(",").append("x".repeat(200_000)).append("\n");
+        Random random = new Random(42);
+        List<String> all = List.of(a, b, c, d, unrequested, "9999");
+        for (int i = 0; i < 20_000; i++) {
+            trades.append(100 + i).append(',').append(all.get(random.nextInt(all.size()))).append(',').append(random.nextInt(1000))
+                    .append(random.nextInt(10) == 0 ? "\r\n" : "\n");
+        }
+        trades.append("8,").append(b).append(",9");
+        byte[] input = trades.toString().getBytes(StandardCharsets.UTF_8);
+
+        TraderIdLookup traders = new TraderIdLookup(requested);
+        TraderIndex.Builder bytesIndex = new TraderIndex.Builder();
+        RoutedTradeBytes bytes = new TradeLineRouter().route(new ByteArrayInputStream(input), traders, bytesIndex);
+        TraderIndex.Builder linesIndex = new TraderIndex.Builder();
+        RoutedTradeBytes lines = S3TradesProcessor.routeLines(
+                new BufferedReader(new InputStreamReader(new ByteArrayInputStream(input), StandardCharsets.UTF_8)),
+                new RoutedTradeBatches(traders, MemoryBudget.unlimited(), batch -> {
+                    throw new IllegalStateException("An unlimited budget never flushes");
+                }),
+                linesIndex);
+
+        Map<String, String> routedBytes = contents(bytes);
+        assertThat(routedBytes.keySet()).containsExactlyInAnyOrder(a, b, c, d);
+        assertThat(routedBytes.get(b).startsWith("2, " + b + " ,6\n")).isTrue();
+        assertThat(routedBytes.get(b).endsWith("8," + b + ",9\n")).isTrue();
+        assertThat(routedBytes).isEqualTo(contents(lines));
+        assertThat(bytesIndex.build("key", "etag").toBytes()).isEqualTo(linesIndex.build("key", "etag").toBytes());
+    }
+
+    /**
+     * The first {@code count} numeric IDs whose hashes fall into the same slot of a table with {@code mask}.
+     */
+    private static List<String> idsInOneSlot(int count, int mask) {
+        Map<Integer, List<String>> bySlot = new TreeMap<>();
+        for (int id = 2000; ; id++) {
+            String traderId = String.valueOf(id);
+            byte[] key = traderId.getBytes(StandardCharsets.UTF_8);
+            List<String> slot = bySlot.computeIfAbsent(TraderIdLookup.hash(key, 0, key.length) & mask, k -> new ArrayList<>());
+            slot.add(traderId);
+            if (slot.size() == count) {
+                return slot;
+            }
+        }
+    }
+
+    private static Map<String, String> contents(RoutedTradeBytes routed) throws IOException {
+        Map<String, String> contents = new TreeMap<>();
+        routed.forEachTrader((traderId, data, length, lineCount) -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(data, 0, length);
+            contents.put(traderId, out.toString(StandardCharsets.UTF_8));
+        });
+        return contents;
+    }
+}
@@ -0,0 +1,95 @@
+package uk.co.threebugs.archive;
+
+import org.junit.jupiter.api.Test;
+import uk.co.threebugs.conversion.RawTrades;
+import uk.co.threebugs.tradelog.SegmentedTradeLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ArchiveWriterTest {
+
+    @Test
+    void addsASegmentedTradeLogAsOneCsvPerTrader() throws Exception {
+        Path scenarioDir = Files.createTempDirectory("scenario");
+        try {
+            Files.writeString(scenarioDir.resolve("summary.csv"), "traderId\n1000\n1001\n");
+            Path rawDir = Files.createDirectories(scenarioDir.resolve("raw"));
+            try (SegmentedTradeLog tradeLog = SegmentedTradeLog.create(rawDir, "tradeId,traderId", 64)) {
+                append(tradeLog, "1000", "1,1000\n");
+                append(tradeLog, "1001", "2,1001\n");
+                append(tradeLog, "1000", "3,1000\n");
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (ArchiveWriter writer = new ZipArchiveWriter(out, 6)) {
+                writer.addDirectory(scenarioDir);
+            }
+
+            Map<String, String> entries = new LinkedHashMap<>();
+            try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+                ZipEntry entry;
+                while ((entry = in.getNextEntry()) != null) {
+                    entries.put(entry.getName(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                }
+            }
+            assertThat(entries.keySet()).containsExactlyInAnyOrder("summary.csv", "raw/1000.csv", "raw/1001.csv");
+            assertThat(entries.get("raw/1000.csv")).isEqualTo("tradeId,traderId\n1,1000\n3,1000\n");
+            assertThat(entries.get("raw/1001.csv")).isEqualTo("tradeId,traderId\n2,1001\n");
+        } finally {
+            deleteRecursively(scenarioDir);
+        }
+    }
+
+    @Test
+    void rawTraderFilesRejectAnIncompleteSegmentedTradeLog() throws Exception {
+        Path rawDir = Files.createTempDirectory("raw");
+        try {
+            SegmentedTradeLog tradeLog = SegmentedTradeLog.create(rawDir, "tradeId,traderId", 64);
+            append(tradeLog, "1000", "1,1000\n");
+            tradeLog.abandon();
+            Files.writeString(rawDir.resolve("1001.csv"), "tradeId,traderId\n2,1001\n");
+
+            assertThatThrownBy(() -> RawTrades.files(Arrays.asList(listFiles(rawDir))))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("Incomplete segmented trade log");
+
+            Files.delete(rawDir.resolve("segment-00000.log"));
+            Files.writeString(rawDir.resolve("notes.txt"), "not a trader");
+
+            assertThat(RawTrades.files(Arrays.asList(listFiles(rawDir))).traderIds()).containsExactly("1001");
+        } finally {
+            deleteRecursively(rawDir);
+        }
+    }
+
+    private static void append(SegmentedTradeLog tradeLog, String traderId, String lines) throws Exception {
+        byte[] data = lines.getBytes(StandardCharsets.UTF_8);
+        tradeLog.append(traderId, data, 0, data.length);
+    }
+
+    private static File[] listFiles(Path dir) {
+        return dir.toFile().listFiles();
+    }
+
+    private static void deleteRecursively(Path dir) throws Exception {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted((a, b) -> b.getNameCount() - a.getNameCount()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
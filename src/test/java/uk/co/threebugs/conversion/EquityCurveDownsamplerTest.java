@@ -0,0 +1,50 @@
+package uk.co.threebugs.conversion;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EquityCurveDownsamplerTest {
+
+    @Test
+    void keepsTheFirstAndLastPointsWithinEveryBudget() {
+        for (int budget = 2; budget <= 12; budget++) {
+            List<EquityCurveDownsampler.Point> points = downsample(100, budget);
+
+            assertThat(points.size()).as("points for budget %d", budget).isLessThanOrEqualTo(budget);
+            assertThat(points.getFirst()).as("first point for budget %d", budget).isEqualTo(new EquityCurveDownsampler.Point("t0", 0));
+            assertThat(points.getLast()).as("last point for budget %d", budget).isEqualTo(new EquityCurveDownsampler.Point("t99", 99));
+        }
+    }
+
+    @Test
+    void keepsOnlyTheLastPointWithABudgetOfOne() {
+        assertThat(downsample(100, 1)).containsExactly(new EquityCurveDownsampler.Point("t99", 99));
+        assertThat(downsample(1, 1)).containsExactly(new EquityCurveDownsampler.Point("t0", 0));
+    }
+
+    @Test
+    void keepsPeaksAndDrawdownsBetweenTheEndpoints() {
+        EquityCurveDownsampler downsampler = new EquityCurveDownsampler(7, 4);
+        int[] runningTotals = {10, 50, 40, -30, 20, 5, 15};
+        for (int i = 0; i < runningTotals.length; i++) {
+            downsampler.add("t" + i, runningTotals[i]);
+        }
+
+        assertThat(downsampler.points()).containsExactly(
+                new EquityCurveDownsampler.Point("t0", 10),
+                new EquityCurveDownsampler.Point("t1", 50),
+                new EquityCurveDownsampler.Point("t3", -30),
+                new EquityCurveDownsampler.Point("t6", 15));
+    }
+
+    private static List<EquityCurveDownsampler.Point> downsample(int totalPoints, int budget) {
+        EquityCurveDownsampler downsampler = new EquityCurveDownsampler(totalPoints, budget);
+        for (int i = 0; i < totalPoints; i++) {
+            downsampler.add("t" + i, i);
+        }
+        return downsampler.points();
+    }
+}
@@ -0,0 +1,71 @@
+package uk.co.threebugs.conversion;
+
+import org.junit.jupiter.api.Test;
+import uk.co.threebugs.perf.PerformanceBudget;
+import uk.co.threebugs.perf.TradeFixtures;
+
+import java.io.BufferedWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static uk.co.threebugs.perf.GoldenFiles.assertMatchesGolden;
+
+class LineProcessorPerformanceTest {
+
+    private static final List<String> TRADERS = List.of("1000", "1001", "1002");
+
+    private final FileHandler fileHandler = new FileHandler();
+    private final Map<String, Integer> headerMap = fileHandler.createHeaderMap(TradeFixtures.RAW_HEADER);
+
+    @Test
+    void formatsTradesLikeTheGoldenFiles() throws Exception {
+        List<String> lines = TradeFixtures.rawTradeLines(42, TRADERS.size(), 300, true);
+        LineProcessor lineProcessor = new LineProcessor();
+
+        for (int direction : new int[]{1, -1}) {
+            Map<String, StringWriter> outputs = new HashMap<>();
+            Map<String, BufferedWriter> writers = new HashMap<>();
+            Map<String, Integer> runningTotalProfits = new HashMap<>();
+            for (String trader : TRADERS) {
+                StringWriter output = new StringWriter();
+                outputs.put(trader, output);
+                writers.put(trader, new BufferedWriter(output));
+                runningTotalProfits.put(trader, 0);
+            }
+
+            for (String line : lines) {
+                lineProcessor.processLine(line, headerMap, writers, runningTotalProfits, direction);
+            }
+
+            for (String trader : TRADERS) {
+                writers.get(trader).flush();
+                String name = "line-processor-" + trader + (direction < 0 ? "-short" : "") + ".csv";
+                assertMatchesGolden(name, outputs.get(trader).toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    void staysWithinAllocationAndThroughputBudget() throws Exception {
+        int records = 100_000;
+        List<String> lines = TradeFixtures.rawTradeLines(7, 200, records, false);
+        LineProcessor lineProcessor = new LineProcessor();
+        Map<String, BufferedWriter> writers = new HashMap<>();
+        Map<String, Integer> runningTotalProfits = new HashMap<>();
+        for (int trader = 1000; trader < 1200; trader++) {
+            writers.put(String.valueOf(trader), new BufferedWriter(Writer.nullWriter()));
+            runningTotalProfits.put(String.valueOf(trader), 0);
+        }
+
+        PerformanceBudget budget = PerformanceBudget.of("lineProcessor", 1_200, 200_000);
+        budget.check(budget.measure(records, PerformanceBudget.Step.none(), () -> {
+            for (String line : lines) {
+                lineProcessor.processLine(line, headerMap, writers, runningTotalProfits, 1);
+            }
+        }));
+    }
+}
@@ -0,0 +1,110 @@
+package uk.co.threebugs.conversion;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.co.threebugs.memory.MemoryBudget;
+import uk.co.threebugs.perf.PerformanceBudget;
+import uk.co.threebugs.perf.TradeFixtures;
+import uk.co.threebugs.pipeline.PipelineSettings;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.co.threebugs.perf.GoldenFiles.assertMatchesGolden;
+
+class TradeProcessorPerformanceTest {
+
+    private final TradeProcessor tradeProcessor = new TradeProcessor(PipelineSettings.defaults(), 20);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void sortsAndRecalculatesRunningTotalsLikeTheGoldenFile() throws Exception {
+        Path file = tempDir.resolve("1000.csv");
+        writeFormattedTrades(file, TradeFixtures.formattedTradeLines(42, 300));
+
+        tradeProcessor.sortFile(file, null);
+
+        assertMatchesGolden("sorted-trades.csv", Files.readAllBytes(file));
+    }
+
+    @Test
+    void downsamplesTheEquityCurveLikeTheGoldenFile() throws Exception {
+        Path file = tempDir.resolve("1000.csv");
+        Path equityCurves = Files.createDirectories(tempDir.resolve("equity-curves"));
+        writeFormattedTrades(file, TradeFixtures.formattedTradeLines(42, 300));
+
+        tradeProcessor.sortFile(file, equityCurves);
+
+        assertMatchesGolden("sorted-trades.csv", Files.readAllBytes(file));
+        assertMatchesGolden("equity-curve.csv", Files.readAllBytes(equityCurves.resolve("1000.csv")));
+    }
+
+    @Test
+    void sortsInSpilledRunsLikeTheGoldenFileWhenTheMemoryBudgetIsTooSmall() throws Exception {
+        Path file = tempDir.resolve("1000.csv");
+        Path equityCurves = Files.createDirectories(tempDir.resolve("equity-curves"));
+        writeFormattedTrades(file, TradeFixtures.formattedTradeLines(42, 300));
+
+        try (MemoryBudget memoryBudget = new MemoryBudget("test-sort-spill", 32 * 1024)) {
+            new TradeProcessor(PipelineSettings.defaults().withMemoryBudget(memoryBudget), 20).sortFile(file, equityCurves);
+
+            assertThat(memoryBudget.getDeniedCount()).isEqualTo(1L);
+            assertThat(memoryBudget.getReservedBytes()).isEqualTo(0L);
+        }
+
+        assertMatchesGolden("sorted-trades.csv", Files.readAllBytes(file));
+        assertMatchesGolden("equity-curve.csv", Files.readAllBytes(equityCurves.resolve("1000.csv")));
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertThat(files.map(path -> path.getFileName().toString()).toList()).containsExactlyInAnyOrder("1000.csv", "equity-curves");
+        }
+    }
+
+    @Test
+    void convertsInSpilledRunsLikeInMemoryWhenTheMemoryBudgetIsTooSmall() throws Exception {
+        Path rawFile = tempDir.resolve("1000.csv");
+        List<String> raw = new ArrayList<>();
+        raw.add(TradeFixtures.RAW_HEADER);
+        raw.addAll(TradeFixtures.rawTradeLines(11, 1, 5_000, true));
+        Files.write(rawFile, raw);
+        RawTrades rawTrades = RawTrades.files(List.of(rawFile.toFile()));
+        Path inMemory = tempDir.resolve("in-memory");
+        Path spilled = tempDir.resolve("spilled");
+
+        tradeProcessor.convertTrades(rawTrades, "long", TradeOutput.directory(inMemory));
+        try (MemoryBudget memoryBudget = new MemoryBudget("test-convert-spill", 64 * 1024)) {
+            new TradeProcessor(PipelineSettings.defaults().withMemoryBudget(memoryBudget), 20).convertTrades(rawTrades, "long", TradeOutput.directory(spilled));
+
+            assertThat(memoryBudget.getDeniedCount()).isGreaterThan(0L);
+            assertThat(memoryBudget.getReservedBytes()).isEqualTo(0L);
+        }
+
+        for (String name : List.of("formatted-trades/1000.csv", "equity-curves/1000.csv")) {
+            assertThat(Files.readAllBytes(spilled.resolve(name))).as(name).isEqualTo(Files.readAllBytes(inMemory.resolve(name)));
+        }
+    }
+
+    @Test
+    void sortFileStaysWithinAllocationAndThroughputBudget() throws Exception {
+        int records = 100_000;
+        List<String> lines = TradeFixtures.formattedTradeLines(7, records);
+        Path file = tempDir.resolve("1001.csv");
+        Path equityCurves = Files.createDirectories(tempDir.resolve("equity-curves"));
+
+        PerformanceBudget budget = PerformanceBudget.of("sortFile", 1_000, 100_000);
+        budget.check(budget.measure(records, () -> writeFormattedTrades(file, lines), () -> tradeProcessor.sortFile(file, equityCurves)));
+    }
+
+    private static void writeFormattedTrades(Path file, List<String> lines) throws IOException {
+        List<String> content = new ArrayList<>(lines.size() + 1);
+        content.add(TradeFixtures.FORMATTED_HEADER);
+        content.addAll(lines);
+        Files.write(file, content);
+    }
+}
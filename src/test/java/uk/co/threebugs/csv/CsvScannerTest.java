@@ -0,0 +1,56 @@
+package uk.co.threebugs.csv;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CsvScannerTest {
+
+    private final ScalarCsvScanner scalar = new ScalarCsvScanner();
+    private final VectorCsvScanner vector = new VectorCsvScanner();
+
+    @Test
+    void vectorScannerFindsEveryPositionAcrossVectorBoundaries() {
+        int lanes = vector.lanes();
+        int length = 3 * lanes + 3;
+        for (int target = -1; target < length; target++) {
+            // One comma at each position in turn, inside or outside the range, or none at all.
+            byte[] buf = new byte[length];
+            Arrays.fill(buf, (byte) 'a');
+            if (target >= 0) {
+                buf[target] = ',';
+            }
+            for (int from = 0; from <= lanes + 1; from++) {
+                for (int to = from; to <= length; to++) {
+                    assertThat(vector.indexOf(buf, from, to, (byte) ','))
+                            .as("target %d in [%d, %d)", target, from, to)
+                            .isEqualTo(scalar.indexOf(buf, from, to, (byte) ','));
+                }
+            }
+        }
+    }
+
+    @Test
+    void vectorScannerMatchesTheScalarScannerOnRandomBuffersAndRanges() {
+        Random random = new Random(7);
+        byte[] alphabet = {',', '\n', '\r', '"', 'a', '0', (byte) 0xc3, (byte) 0xa9};
+        for (int run = 0; run < 20_000; run++) {
+            byte[] buf = new byte[random.nextInt(4 * vector.lanes() + 10)];
+            // Sparse buffers give long runs without a match, dense ones a match in the first vector.
+            int density = 1 + random.nextInt(64);
+            for (int i = 0; i < buf.length; i++) {
+                buf[i] = random.nextInt(density) == 0 ? alphabet[random.nextInt(alphabet.length)] : (byte) 'x';
+            }
+            int from = buf.length == 0 ? 0 : random.nextInt(buf.length + 1);
+            int to = from + random.nextInt(buf.length - from + 1);
+            byte target = alphabet[random.nextInt(alphabet.length)];
+
+            assertThat(vector.indexOf(buf, from, to, target))
+                    .as("run %d: %s in [%d, %d) of %d bytes", run, target, from, to, buf.length)
+                    .isEqualTo(scalar.indexOf(buf, from, to, target));
+        }
+    }
+}
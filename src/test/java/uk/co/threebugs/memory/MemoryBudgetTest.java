@@ -0,0 +1,201 @@
+package uk.co.threebugs.memory;
+
+import org.junit.jupiter.api.Test;
+import uk.co.threebugs.analysis.RoutedTradeBatches;
+import uk.co.threebugs.analysis.RoutedTradeBytes;
+import uk.co.threebugs.analysis.TradeLineRouter;
+import uk.co.threebugs.analysis.TraderIdLookup;
+import uk.co.threebugs.pipeline.Channel;
+import uk.co.threebugs.pipeline.SequenceGate;
+import uk.co.threebugs.pipeline.StagedPipeline;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MemoryBudgetTest {
+
+    @Test
+    void deniesReservationsBeyondTheLimitUntilBytesAreReleased() {
+        try (MemoryBudget budget = new MemoryBudget("test-deny", 1000)) {
+            assertThat(budget.tryReserve(600)).isTrue();
+            assertThat(budget.tryReserve(500)).isFalse();
+
+            budget.release(200);
+
+            assertThat(budget.tryReserve(500)).isTrue();
+            assertThat(budget.getReservedBytes()).isEqualTo(900L);
+            assertThat(budget.getDeniedCount()).isEqualTo(1L);
+
+            budget.forceReserve(500);
+
+            assertThat(budget.availableBytes()).isEqualTo(0L);
+            assertThat(budget.getPeakReservedBytes()).isEqualTo(1400L);
+        }
+    }
+
+    @Test
+    void reserveWaitsForAReleaseAndGrantsOversizeRequestsWhenNothingIsReserved() throws Exception {
+        try (MemoryBudget budget = new MemoryBudget("test-wait", 1000)) {
+            budget.reserve(800);
+            CountDownLatch reserved = new CountDownLatch(1);
+            Thread waiter = new Thread(() -> {
+                try {
+                    budget.reserve(5000);
+                    reserved.countDown();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            waiter.start();
+
+            assertThat(reserved.await(100, TimeUnit.MILLISECONDS)).isFalse();
+
+            budget.release(800);
+
+            assertThat(reserved.await(5, TimeUnit.SECONDS)).isTrue();
+            waiter.join();
+            assertThat(budget.getReservedBytes()).isEqualTo(5000L);
+            assertThat(budget.getWaitCount()).isEqualTo(1L);
+        }
+    }
+
+    @Test
+    void readsCgroupLimits() throws Exception {
+        Path limit = Files.createTempFile("memory", ".max");
+        try {
+            Files.writeString(limit, "536870912\n");
+            assertThat(MemoryBudget.readCgroupLimit(limit)).isEqualTo(536_870_912L);
+
+            Files.writeString(limit, "max\n");
+            assertThat(MemoryBudget.readCgroupLimit(limit)).isNull();
+
+            Files.writeString(limit, "9223372036854771712\n");
+            assertThat(MemoryBudget.readCgroupLimit(limit)).isNull();
+        } finally {
+            Files.delete(limit);
+        }
+        assertThat(MemoryBudget.readCgroupLimit(limit)).isNull();
+    }
+
+    @Test
+    void routerFlushesBatchesInLineOrderWhenTheBudgetIsExhausted() throws Exception {
+        StringBuilder trades = new StringBuilder("tradeId,traderId,timeToPlace\n");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            String line = i + "," + (i % 2 == 0 ? "1000" : "1001") + ",5";
+            trades.append(line).append('\n');
+            if (i % 2 == 0) {
+                expected.append(line).append('\n');
+            }
+        }
+
+        try (MemoryBudget budget = new MemoryBudget("test-batches", 8 * 1024)) {
+            TraderIdLookup traders = new TraderIdLookup(Set.of("1000"));
+            List<String> batches = new ArrayList<>();
+            RoutedTradeBatches routedBatches = new RoutedTradeBatches(traders, budget, batch -> {
+                batches.add(contents(batch));
+                batch.release();
+            });
+
+            RoutedTradeBytes last = new TradeLineRouter().route(new ByteArrayInputStream(trades.toString().getBytes(StandardCharsets.UTF_8)), routedBatches, null);
+            batches.add(contents(last));
+            last.release();
+
+            assertThat(routedBatches.flushCount()).isGreaterThan(0);
+            assertThat(String.join("", batches)).isEqualTo(expected.toString());
+            assertThat(budget.getReservedBytes()).isEqualTo(0L);
+        }
+    }
+
+    @Test
+    void laterObjectsWaitForTheirTurnWhileConcurrentObjectsExhaustTheBudget() throws Exception {
+        List<String> traderIds = List.of("1000", "1001", "1002", "1003");
+        List<byte[]> objects = new ArrayList<>();
+        Map<String, String> expected = new TreeMap<>();
+        for (int object = 0; object < 8; object++) {
+            StringBuilder trades = new StringBuilder("tradeId,traderId,timeToPlace\n");
+            for (int i = 0; i < 3000; i++) {
+                String traderId = traderIds.get(i % traderIds.size());
+                String line = object + "-" + i + "," + traderId + ",5\n";
+                trades.append(line);
+                expected.merge(traderId, line, String::concat);
+            }
+            objects.add(trades.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        int queueCapacity = 2;
+        try (MemoryBudget budget = new MemoryBudget("test-concurrent", 16 * 1024);
+             StagedPipeline pipeline = new StagedPipeline("test-concurrent")) {
+            TraderIdLookup traders = new TraderIdLookup(traderIds);
+            SequenceGate gate = new SequenceGate();
+            AtomicInteger waitCount = new AtomicInteger();
+            List<Integer> writtenSequences = new ArrayList<>();
+            Map<String, String> written = new TreeMap<>();
+
+            Channel<Integer> sequences = pipeline.channel("objects", queueCapacity);
+            Channel<Batch> routed = pipeline.channel("routed", queueCapacity);
+            pipeline.source("list", sequences, out -> {
+                for (int object = 0; object < objects.size(); object++) {
+                    out.emit(object);
+                }
+            });
+            pipeline.stage("decode", 4, sequences, routed, (object, out) -> {
+                RoutedTradeBatches batches = new RoutedTradeBatches(traders, budget, gate, object, batch -> emit(out, new Batch(object, batch)));
+                RoutedTradeBytes last = new TradeLineRouter().route(new ByteArrayInputStream(objects.get(object)), batches, null);
+                waitCount.addAndGet(batches.waitCount());
+                gate.awaitTurn(object);
+                out.emit(new Batch(object, last));
+                gate.advance(object);
+            });
+            pipeline.sink("write", 1, routed, batch -> {
+                writtenSequences.add(batch.sequence());
+                batch.trades().forEachTrader((traderId, buf, length, lineCount) ->
+                        written.merge(traderId, new String(buf, 0, length, StandardCharsets.UTF_8), String::concat));
+                batch.trades().release();
+            });
+            pipeline.await();
+
+            assertThat(waitCount.get()).isGreaterThan(0);
+            assertThat(writtenSequences).isEqualTo(writtenSequences.stream().sorted().toList());
+            assertThat(written).isEqualTo(expected);
+            assertThat(budget.getReservedBytes()).isEqualTo(0L);
+            // Only the object whose turn it is grows past the budget: the batches queued for and held by the writer,
+            // and the one being routed, each with at most one initial buffer per trader.
+            long overshoot = (queueCapacity + 3) * traderIds.size() * 4096L;
+            assertThat(budget.getPeakReservedBytes()).isLessThanOrEqualTo(budget.getLimitBytes() + overshoot);
+        }
+    }
+
+    private record Batch(int sequence, RoutedTradeBytes trades) {
+    }
+
+    private static void emit(StagedPipeline.Emitter<Batch> out, Batch batch) throws InterruptedIOException {
+        try {
+            out.emit(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while passing on batch of object " + batch.sequence());
+        }
+    }
+
+    private static String contents(RoutedTradeBytes batch) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        batch.forEachTrader((traderId, buf, length, lineCount) -> out.write(buf, 0, length));
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,47 @@
+package uk.co.threebugs.perf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Byte-for-byte comparison against files in {@code src/test/resources/golden}. Run the tests with
+ * {@code -Dgolden.update=true} to rewrite the golden files after an intended format change. Outputs end lines
+ * with the platform line separator, and golden files with {@code \n}, so the actual output is compared and
+ * written with its line separators replaced by {@code \n}.
+ */
+public final class GoldenFiles {
+
+    private static final Path GOLDEN_SOURCE_DIR = Paths.get("src", "test", "resources", "golden");
+
+    private GoldenFiles() {
+    }
+
+    public static void assertMatchesGolden(String name, byte[] output) throws IOException {
+        byte[] actual = withLfLineEndings(output);
+        if (Boolean.getBoolean("golden.update")) {
+            Files.createDirectories(GOLDEN_SOURCE_DIR);
+            Files.write(GOLDEN_SOURCE_DIR.resolve(name), actual);
+            return;
+        }
+
+        byte[] expected;
+        try (InputStream in = GoldenFiles.class.getResourceAsStream("/golden/" + name)) {
+            assertThat(in).as("golden file %s", name).isNotNull();
+            expected = in.readAllBytes();
+        }
+        assertThat(actual).as("output compared to golden file %s", name).isEqualTo(expected);
+    }
+
+    private static byte[] withLfLineEndings(byte[] output) {
+        if (System.lineSeparator().equals("\n")) {
+            return output;
+        }
+        return new String(output, StandardCharsets.UTF_8).replace(System.lineSeparator(), "\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
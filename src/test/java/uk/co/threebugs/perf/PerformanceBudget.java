@@ -0,0 +1,90 @@
+package uk.co.threebugs.perf;
+
+import com.sun.management.ThreadMXBean;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.management.ManagementFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Allocation and throughput limits for one component. Defaults can be overridden per component with
+ * {@code -Dperf.<component>.maxBytesPerRecord=...} and {@code -Dperf.<component>.minRecordsPerSecond=...}.
+ * Allocation is always checked. Throughput depends on the machine and its load, so it is only checked with
+ * {@code -Dperf.checkThroughput=true}.
+ *
+ * @param component          The component name used in property names and messages.
+ * @param maxBytesPerRecord  The most heap a record may allocate on average.
+ * @param minRecordsPerSecond The fewest records per second the component may process.
+ */
+@Slf4j
+public record PerformanceBudget(String component, long maxBytesPerRecord, long minRecordsPerSecond) {
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 5;
+
+    public static PerformanceBudget of(String component, long defaultMaxBytesPerRecord, long defaultMinRecordsPerSecond) {
+        return new PerformanceBudget(component,
+                Long.getLong("perf." + component + ".maxBytesPerRecord", defaultMaxBytesPerRecord),
+                Long.getLong("perf." + component + ".minRecordsPerSecond", defaultMinRecordsPerSecond));
+    }
+
+    /**
+     * Runs {@code body} until the JIT has warmed up, then measures the allocation of the current thread and
+     * the elapsed time over further runs. {@code setup} runs before each run and is not measured.
+     *
+     * @param records The number of records one run of {@code body} processes.
+     */
+    public Measurement measure(int records, Step setup, Step body) throws Exception {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            setup.run();
+            body.run();
+        }
+
+        long allocatedBytes = 0;
+        long elapsedNanos = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            setup.run();
+            long bytesBefore = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            body.run();
+            elapsedNanos += System.nanoTime() - start;
+            allocatedBytes += threads.getCurrentThreadAllocatedBytes() - bytesBefore;
+        }
+
+        long totalRecords = (long) records * MEASURED_ITERATIONS;
+        return new Measurement(component, allocatedBytes / totalRecords, totalRecords * 1_000_000_000L / Math.max(1, elapsedNanos));
+    }
+
+    /**
+     * Fails if the measurement exceeds the allocation budget or, when throughput checks are enabled, falls
+     * below the throughput budget.
+     */
+    public void check(Measurement measurement) {
+        log.info("{}: {} bytes/record (budget {}), {} records/s (budget {})", component,
+                measurement.bytesPerRecord(), maxBytesPerRecord, measurement.recordsPerSecond(), minRecordsPerSecond);
+
+        assertThat(measurement.bytesPerRecord())
+                .as("%s allocated bytes per record", component)
+                .isLessThanOrEqualTo(maxBytesPerRecord);
+        if (Boolean.getBoolean("perf.checkThroughput")) {
+            assertThat(measurement.recordsPerSecond())
+                    .as("%s records per second", component)
+                    .isGreaterThanOrEqualTo(minRecordsPerSecond);
+        }
+    }
+
+    public record Measurement(String component, long bytesPerRecord, long recordsPerSecond) {
+    }
+
+    @FunctionalInterface
+    public interface Step {
+        void run() throws Exception;
+
+        static Step none() {
+            return () -> {
+            };
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package uk.co.threebugs.perf;
+
+import uk.co.threebugs.conversion.DateUtils;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic CSV fixtures in the formats the tool reads and writes. The same seed always yields the same
+ * content, so small fixtures can be checked against golden files.
+ */
+public final class TradeFixtures {
+
+    public static final String RAW_HEADER = "tradeId,traderId,timeToPlace,dayOfWeek,dayOfMonth,month,weekOfYear,placedDateTime,limitPrice,stopPrice,state,filledPrice,exitPrice,direction";
+    public static final String FORMATTED_HEADER = "PlaceDateTime,FilledPrice,ClosingPrice,Profit,RunningTotalProfit,State";
+    public static final String SUMMARY_HEADER = "traderid,dayofweek,hourofday,stop,limit,tickoffset,tradeduration,outoftime,totalprofit,winrate";
+
+    private static final String[] STATES = {"CLOSED", "STOPPED", "EXPIRED", "FILLED"};
+    private static final int BASE_EPOCH_SECOND = 1_704_067_200; // 2024-01-01T00:00:00Z
+
+    private TradeFixtures() {
+    }
+
+    /**
+     * Raw trade rows as routed into {@code raw/<traderId>.csv}, without the header. Every 97th row is a POISON
+     * row, and with {@code badRows} every 89th row has an unparsable price, so the skip and error paths are
+     * exercised.
+     */
+    public static List<String> rawTradeLines(long seed, int traders, int count, boolean badRows) {
+        Random random = new Random(seed);
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int traderId = 1000 + random.nextInt(traders);
+            int filled = 20_000 + random.nextInt(5_000);
+            int exit = filled + random.nextInt(401) - 200;
+            int placed = BASE_EPOCH_SECOND + random.nextInt(365 * 24 * 3600);
+            String state = i % 97 == 0 ? "POISON" : STATES[random.nextInt(STATES.length)];
+            String exitPrice = badRows && i % 89 == 0 ? "n/a" : String.valueOf(exit);
+            lines.add(String.join(",",
+                    String.valueOf(i),
+                    " " + traderId + " ",
+                    String.valueOf(random.nextInt(60)),
+                    String.valueOf(random.nextInt(7)),
+                    String.valueOf(1 + random.nextInt(28)),
+                    String.valueOf(1 + random.nextInt(12)),
+                    String.valueOf(1 + random.nextInt(52)),
+                    String.valueOf(placed),
+                    String.valueOf(filled + 100),
+                    String.valueOf(filled - 100),
+                    state,
+                    " " + filled,
+                    exitPrice + " ",
+                    random.nextBoolean() ? "1" : "-1"));
+        }
+        return lines;
+    }
+
+    /**
+     * Formatted trade rows in random time order, as {@code LineProcessor} writes them before sorting, without
+     * the header. Running totals are deliberately wrong; sorting recalculates them.
+     */
+    public static List<String> formattedTradeLines(long seed, int count) {
+        Random random = new Random(seed);
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int filled = 20_000 + random.nextInt(5_000);
+            int exit = filled + random.nextInt(401) - 200;
+            long placed = BASE_EPOCH_SECOND + random.nextInt(365 * 24 * 3600);
+            String dateTime = LocalDateTime.ofEpochSecond(placed, 0, ZoneOffset.UTC).format(DateUtils.DATE_TIME_FORMATTER);
+            lines.add(String.join(",", dateTime, String.valueOf(filled), String.valueOf(exit),
+                    String.valueOf(exit - filled), String.valueOf(random.nextInt(1000)), STATES[random.nextInt(STATES.length)]));
+        }
+        return lines;
+    }
+
+    /**
+     * A concatenated summary CSV, as {@code Runner.processCsvGroup} returns it, in which roughly a third of
+     * the rows repeat the filter columns of an earlier row.
+     */
+    public static String summaryCsv(long seed, int rows) {
+        Random random = new Random(seed);
+        StringBuilder csv = new StringBuilder(SUMMARY_HEADER).append('\n');
+        List<String> filterColumns = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            String columns;
+            if (!filterColumns.isEmpty() && random.nextInt(3) == 0) {
+                columns = filterColumns.get(random.nextInt(filterColumns.size()));
+            } else {
+                columns = String.join(",",
+                        String.valueOf(random.nextInt(7)),
+                        String.valueOf(random.nextInt(24)),
+                        String.valueOf(-100 * (1 + random.nextInt(30))),
+                        String.valueOf(100 * (1 + random.nextInt(75))),
+                        String.valueOf(100 * (random.nextInt(17) - 8)),
+                        String.valueOf(14),
+                        String.valueOf(8));
+                filterColumns.add(columns);
+            }
+            csv.append(i).append(',').append(columns).append(',')
+                    .append(random.nextInt(20_000) - 10_000).append(',')
+                    .append(random.nextInt(100)).append('\n');
+        }
+        return csv.toString();
+    }
+}
@@ -0,0 +1,78 @@
+package uk.co.threebugs.pipeline;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StagedPipelineTest {
+
+    @Test
+    void anErrorInOneStageCancelsTheOthersAndIsRethrownFromAwait() throws Exception {
+        ExecutorService runner = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> run = runner.submit(() -> {
+                try (StagedPipeline pipeline = new StagedPipeline("test-error")) {
+                    Channel<Integer> numbers = pipeline.channel("numbers", 1);
+                    Channel<Integer> doubled = pipeline.channel("doubled", 1);
+                    // The source would block on the full channel forever if the failed stage were not noticed.
+                    pipeline.source("count", numbers, out -> {
+                        for (int i = 0; i < 1_000_000; i++) {
+                            out.emit(i);
+                        }
+                    });
+                    pipeline.stage("double", 1, numbers, doubled, (number, out) -> {
+                        if (number == 2) {
+                            throw new OutOfMemoryError("test");
+                        }
+                        out.emit(number * 2);
+                    });
+                    pipeline.sink("drop", 1, doubled, number -> {
+                    });
+                    pipeline.await();
+                }
+                return null;
+            });
+
+            ExecutionException failure = null;
+            try {
+                run.get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                failure = e;
+            }
+            assertThat(failure).isNotNull();
+            assertThat(failure.getCause()).isInstanceOf(OutOfMemoryError.class);
+        } finally {
+            runner.shutdownNow();
+        }
+    }
+
+    @Test
+    void anExceptionInOneStageIsRethrownFromAwaitAsAnIOException() throws Exception {
+        IOException failure = null;
+        try (StagedPipeline pipeline = new StagedPipeline("test-exception")) {
+            Channel<Integer> numbers = pipeline.channel("numbers", 1);
+            pipeline.source("count", numbers, out -> {
+                for (int i = 0; i < 1_000_000; i++) {
+                    out.emit(i);
+                }
+            });
+            pipeline.sink("check", 1, numbers, number -> {
+                if (number == 2) {
+                    throw new IllegalStateException("bad number");
+                }
+            });
+            pipeline.await();
+        } catch (IOException e) {
+            failure = e;
+        }
+        assertThat(failure).isNotNull();
+        assertThat(failure.getCause()).isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,107 @@
+package uk.co.threebugs.s3;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.exception.SdkClientException;
+
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.IntToLongFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class S3RequestSchedulerTest {
+
+    @Test
+    void failsAtOnceOnClientErrorsThatRetriesCannotFix() {
+        try (S3RequestScheduler scheduler = new S3RequestScheduler("test-fatal", 4, 8)) {
+            AtomicInteger calls = new AtomicInteger();
+
+            assertThatThrownBy(() -> scheduler.execute("GetObject", () -> {
+                calls.incrementAndGet();
+                throw SdkClientException.create("Unable to load credentials from any of the providers in the chain");
+            })).isInstanceOf(SdkClientException.class);
+            assertThatThrownBy(() -> scheduler.execute("GetObject", () -> {
+                calls.incrementAndGet();
+                throw SdkClientException.create("Unable to execute HTTP request", new UnknownHostException("no-such-bucket.s3.amazonaws.com"));
+            })).isInstanceOf(SdkClientException.class);
+
+            assertThat(calls.get()).isEqualTo(2);
+            assertThat(scheduler.getRetryCount()).isEqualTo(0L);
+            assertThat(scheduler.getErrorCount()).isEqualTo(0L);
+            assertThat(scheduler.getCurrentLimit()).isEqualTo(4);
+        }
+    }
+
+    @Test
+    void retriesClientErrorsCausedByNetworkIo() throws Exception {
+        try (S3RequestScheduler scheduler = new S3RequestScheduler("test-retry", 4, 8)) {
+            AtomicInteger calls = new AtomicInteger();
+
+            String result = scheduler.execute("GetObject", () -> {
+                if (calls.incrementAndGet() == 1) {
+                    throw SdkClientException.create("Unable to execute HTTP request", new SocketException("Connection reset"));
+                }
+                return "ok";
+            });
+
+            assertThat(result).isEqualTo("ok");
+            assertThat(calls.get()).isEqualTo(2);
+            assertThat(scheduler.getRetryCount()).isEqualTo(1L);
+            assertThat(scheduler.getErrorCount()).isEqualTo(1L);
+        }
+    }
+
+    @Test
+    void growsToTheMaximumWhenFastAndSlowOperationsShareWindows() {
+        AtomicLong clock = new AtomicLong();
+        try (S3RequestScheduler scheduler = new S3RequestScheduler("test-mixed", 4, 32, clock::get)) {
+            // A first window of quick HEAD requests must not become the yardstick for large downloads.
+            runWindows(scheduler, clock, 1, i -> "HeadObject", i -> millis(2));
+            runWindows(scheduler, clock, 200, i -> i % 5 == 0 ? "HeadObject" : "GetObject", i -> i % 5 == 0 ? millis(2) : millis(300));
+
+            assertThat(scheduler.getCurrentLimit()).isEqualTo(32);
+        }
+    }
+
+    @Test
+    void growsAgainOnceSlowerRequestsBecomeTheNewBaseline() {
+        AtomicLong clock = new AtomicLong();
+        try (S3RequestScheduler scheduler = new S3RequestScheduler("test-recover", 4, 32, clock::get)) {
+            runWindows(scheduler, clock, 20, i -> "GetObject", i -> millis(100));
+            int before = scheduler.getCurrentLimit();
+
+            // The objects get five times larger for the rest of the run.
+            runWindows(scheduler, clock, 3, i -> "GetObject", i -> millis(500));
+            int lowered = scheduler.getCurrentLimit();
+            runWindows(scheduler, clock, 300, i -> "GetObject", i -> millis(500));
+
+            assertThat(lowered).isLessThan(before);
+            assertThat(scheduler.getCurrentLimit()).isEqualTo(32);
+        }
+    }
+
+    /**
+     * Completes {@code windows} windows of requests, advancing the clock as if the current limit of them ran at once.
+     */
+    private static void runWindows(S3RequestScheduler scheduler, AtomicLong clock, int windows,
+                                   IntFunction<String> operation, IntToLongFunction latency) {
+        int request = 0;
+        for (int window = 0; window < windows; window++) {
+            int limit = scheduler.getCurrentLimit();
+            for (int i = 0; i < limit; i++, request++) {
+                long latencyNanos = latency.applyAsLong(request);
+                clock.addAndGet(latencyNanos / limit);
+                scheduler.recordSuccess(operation.apply(request), latencyNanos);
+            }
+        }
+    }
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,67 @@
+package uk.co.threebugs.summary;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TraderSelectionTest {
+
+    private static final String SUMMARY = """
+            "traderid","dayofweek","hourofday","stop","limit","totalprofit","winrate"
+            10,1,3,-1900,6000,-2475,5
+            11,6,5,-300,300,2292,76
+            12,2,5,-500,1200,880,61
+            13,2,7,-100,400,,50
+            14,1,9,-700,900,1500,58
+            """;
+
+    private final SummaryTable table = SummaryTable.parse(SUMMARY);
+
+    @Test
+    void keepsEveryTraderWithoutFilterOrTop() {
+        TraderSelection selection = TraderSelection.of(null, null, 0);
+
+        assertThat(selection.selectsAll()).isTrue();
+        assertThat(selection.select(table)).containsExactly("10", "11", "12", "13", "14");
+    }
+
+    @Test
+    void filtersOnNumericColumns() {
+        TraderSelection selection = TraderSelection.of("dayofweek in (1, 2) and stop >= -700 and not totalprofit < 0", null, 0);
+
+        assertThat(selection.select(table)).containsExactly("12", "13", "14");
+    }
+
+    @Test
+    void emptyValuesMatchNoComparison() {
+        assertThat(TraderSelection.of("totalprofit != 0", null, 0).select(table)).containsExactly("10", "11", "12", "14");
+        assertThat(TraderSelection.of("not totalprofit != 0", null, 0).select(table)).containsExactly("13");
+    }
+
+    @Test
+    void combinesOrAndParentheses() {
+        TraderSelection selection = TraderSelection.of("(hourofday = 3 or hourofday == 7) OR winrate > 70", null, 0);
+
+        assertThat(selection.select(table)).containsExactly("10", "11", "13");
+    }
+
+    @Test
+    void ranksAndKeepsTheTopTraders() {
+        assertThat(TraderSelection.of("stop < 0", "totalprofit", 3).select(table)).containsExactly("11", "14", "12");
+        assertThat(TraderSelection.of(null, "totalprofit:asc", 2).select(table)).containsExactly("10", "12");
+    }
+
+    @Test
+    void rejectsInvalidExpressionsAndColumns() {
+        assertThatThrownBy(() -> TraderSelection.of("stop >", null, 0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Expected a value");
+        assertThatThrownBy(() -> TraderSelection.of("profit > 0", null, 0).select(table))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Unknown summary column 'profit'");
+        assertThatThrownBy(() -> TraderSelection.of(null, null, 5))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("needs a column to rank");
+    }
+}
@@ -0,0 +1,135 @@
+package uk.co.threebugs.tradelog;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SegmentedTradeLogTest {
+
+    private static final String HEADER = "tradeId,traderId,timeToPlace";
+
+    @Test
+    void replaysEachTraderInAppendOrderAcrossSegmentRollover() throws Exception {
+        Path dir = Files.createTempDirectory("trade-log");
+        try {
+            Map<String, StringBuilder> expected = new LinkedHashMap<>();
+            try (SegmentedTradeLog tradeLog = SegmentedTradeLog.create(dir, HEADER, 256)) {
+                Random random = new Random(11);
+                for (int batch = 0; batch < 300; batch++) {
+                    String traderId = String.valueOf(1000 + random.nextInt(5));
+                    StringBuilder lines = new StringBuilder();
+                    // Some batches are larger than a segment and get one to themselves.
+                    int lineCount = 1 + random.nextInt(random.nextInt(10) == 0 ? 40 : 4);
+                    for (int i = 0; i < lineCount; i++) {
+                        lines.append(batch).append('-').append(i).append(',').append(traderId).append(",5\n");
+                    }
+                    append(tradeLog, traderId, lines.toString());
+                    expected.computeIfAbsent(traderId, k -> new StringBuilder()).append(lines);
+                }
+            }
+
+            assertThat(listLogFiles(dir).size()).isGreaterThan(10);
+            assertThat(SegmentedTradeLog.exists(dir)).isTrue();
+            try (SegmentedTradeLog tradeLog = SegmentedTradeLog.open(dir)) {
+                assertThat(tradeLog.header()).isEqualTo(HEADER);
+                assertThat(tradeLog.traderIds()).isEqualTo(new ArrayList<>(expected.keySet()));
+                for (Map.Entry<String, StringBuilder> trader : expected.entrySet()) {
+                    try (InputStream in = tradeLog.openTrader(trader.getKey())) {
+                        assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo(trader.getValue().toString());
+                    }
+                    List<String> records = new ArrayList<>();
+                    try (SegmentedTradeLog.TradeRecordIterator iterator = tradeLog.records(trader.getKey())) {
+                        iterator.forEachRemaining(records::add);
+                    }
+                    assertThat(records).isEqualTo(trader.getValue().toString().lines().toList());
+
+                    Path exported = dir.resolveSibling(dir.getFileName() + "-" + trader.getKey() + ".csv");
+                    try {
+                        tradeLog.exportTrader(trader.getKey(), exported);
+                        assertThat(Files.readString(exported)).isEqualTo(HEADER + "\n" + trader.getValue());
+                    } finally {
+                        Files.deleteIfExists(exported);
+                    }
+                }
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    void joinsBackToBackBatchesOfATraderIntoOneExtent() throws Exception {
+        Path dir = Files.createTempDirectory("trade-log");
+        try (SegmentedTradeLog tradeLog = SegmentedTradeLog.create(dir, HEADER, 1024)) {
+            append(tradeLog, "1000", "1,1000,5\n");
+            append(tradeLog, "1000", "2,1000,5\n");
+            append(tradeLog, "1001", "3,1001,5\n");
+            append(tradeLog, "1000", "4,1000,5\n");
+
+            assertThat(tradeLog.extents("1000")).containsExactly(new TradeExtent(0, 0, 18), new TradeExtent(0, 27, 9));
+            assertThat(tradeLog.extents("1001")).containsExactly(new TradeExtent(0, 18, 9));
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    void anAbandonedLogIsNeitherOpenedNorLeftBehindByTheNextRun() throws Exception {
+        Path dir = Files.createTempDirectory("trade-log");
+        try {
+            SegmentedTradeLog abandoned = SegmentedTradeLog.create(dir, HEADER, 16);
+            for (int i = 0; i < 5; i++) {
+                append(abandoned, "1000", i + ",1000,5\n");
+            }
+            abandoned.abandon();
+
+            assertThat(listLogFiles(dir)).hasSize(5);
+            assertThat(SegmentedTradeLog.exists(dir)).isFalse();
+            assertThatThrownBy(() -> SegmentedTradeLog.open(dir)).isInstanceOf(NoSuchFileException.class);
+
+            try (SegmentedTradeLog tradeLog = SegmentedTradeLog.create(dir, HEADER, 1024)) {
+                append(tradeLog, "1001", "1,1001,5\n");
+            }
+
+            assertThat(listLogFiles(dir)).containsExactlyInAnyOrder("segment-00000.log", SegmentedTradeLog.INDEX_FILE);
+            try (SegmentedTradeLog tradeLog = SegmentedTradeLog.open(dir)) {
+                assertThat(tradeLog.traderIds()).containsExactly("1001");
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    private static void append(SegmentedTradeLog tradeLog, String traderId, String lines) throws IOException {
+        byte[] data = lines.getBytes(StandardCharsets.UTF_8);
+        tradeLog.append(traderId, data, 0, data.length);
+    }
+
+    private static List<String> listLogFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(file -> file.getFileName().toString()).filter(SegmentedTradeLog::isLogFile).toList();
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted((a, b) -> b.getNameCount() - a.getNameCount()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
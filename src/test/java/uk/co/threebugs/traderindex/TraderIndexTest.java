@@ -0,0 +1,78 @@
+package uk.co.threebugs.traderindex;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.co.threebugs.analysis.TradeLineRouter;
+import uk.co.threebugs.analysis.TraderIdLookup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TraderIndexTest {
+
+    private static final String TRADES = """
+            tradeId,traderId,timeToPlace
+            1,1000,5
+            2, 1001 ,5
+            3,1000,5
+            4,1002,5
+            """;
+
+    @Test
+    void collectsEveryTraderWhileRoutingRequestedOnes() throws Exception {
+        TraderIndex.Builder builder = new TraderIndex.Builder();
+        new TradeLineRouter().route(new ByteArrayInputStream(TRADES.getBytes(StandardCharsets.UTF_8)), new TraderIdLookup(Set.of("1002")), builder);
+
+        TraderIndex index = TraderIndex.fromBytes(builder.build("a/b/trades.lzo", "\"etag\"").toBytes());
+
+        assertThat(index.isExact()).isTrue();
+        assertThat(index.lineCount()).isEqualTo(4L);
+        assertThat(index.traderCount()).isEqualTo(3);
+        assertThat(index.mightContain("1001")).isTrue();
+        assertThat(index.mightContainAny(List.of("999", "1002"))).isTrue();
+        assertThat(index.mightContainAny(List.of("999", "100"))).isFalse();
+    }
+
+    @Test
+    void bloomFilterHasNoFalseNegativesAndFewFalsePositives() throws Exception {
+        TraderIndex.Builder builder = new TraderIndex.Builder();
+        int traders = TraderIndex.EXACT_LIMIT * 2;
+        for (int i = 0; i < traders; i++) {
+            builder.addLine(Integer.toString(i));
+            builder.addLine(Integer.toString(i));
+        }
+
+        TraderIndex index = TraderIndex.fromBytes(builder.build("trades.lzo", "etag").toBytes());
+
+        assertThat(index.isExact()).isFalse();
+        assertThat(index.lineCount()).isEqualTo(traders * 2L);
+        assertThat(index.traderCount()).isEqualTo(traders);
+        for (int i = 0; i < traders; i++) {
+            assertThat(index.mightContain(Integer.toString(i))).as("trader %d", i).isTrue();
+        }
+        int falsePositives = 0;
+        for (int i = traders; i < traders + 10_000; i++) {
+            if (index.mightContain(Integer.toString(i))) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives).as("false positives in 10000").isLessThanOrEqualTo(300);
+    }
+
+    @Test
+    void localStoreIgnoresSidecarsOfOtherObjectVersions(@TempDir Path dir) throws Exception {
+        TraderIndexStore store = TraderIndexStore.directory(dir);
+        TraderIndex.Builder builder = new TraderIndex.Builder();
+        builder.addLine("1000");
+        store.save(builder.build("backtest/btc/scenario/part-0.lzo", "v1"));
+
+        assertThat(store.load("backtest/btc/scenario/part-0.lzo", "v1").mightContain("1000")).isTrue();
+        assertThat(store.load("backtest/btc/scenario/part-0.lzo", "v2")).isNull();
+        assertThat(store.load("backtest/btc/scenario/part-1.lzo", "v1")).isNull();
+    }
+}
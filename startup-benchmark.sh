@@ -0,0 +1,63 @@
+#!/bin/bash
+
+# Measures time-to-first-record of a local run with and without the AppCDS archive.
+#
+# Usage: ./startup-benchmark.sh <back_test_id> <symbol> <scenario> [runs]
+#
+# The scenario must already be in output/<back_test_id>/<symbol>/<scenario> from an earlier run, so the job
+# makes no S3 request; uploads are skipped. Build the jar and the archive first with:
+#   ./gradlew shadowJar appCds
+
+set -euo pipefail
+
+if [ $# -lt 3 ]; then
+    echo "Usage: $0 <back_test_id> <symbol> <scenario> [runs]"
+    exit 1
+fi
+
+BACK_TEST_ID=$1
+SYMBOL=$2
+SCENARIO=$3
+RUNS=${4:-5}
+JAR=${JAR:-$(ls build/libs/*-all.jar | head -n 1)}
+CDS_ARCHIVE=${CDS_ARCHIVE:-build/libs/app-cds.jsa}
+
+if [ ! -d "output/$BACK_TEST_ID/$SYMBOL/$SCENARIO/raw" ]; then
+    echo "Error: output/$BACK_TEST_ID/$SYMBOL/$SCENARIO/raw not found; run the job for this scenario once first"
+    exit 1
+fi
+if [ ! -f "$CDS_ARCHIVE" ]; then
+    echo "Error: $CDS_ARCHIVE not found; run ./gradlew appCds first"
+    exit 1
+fi
+
+# Runs the job RUNS times and prints the average time to first record and the average wall time.
+benchmark() {
+    local label=$1
+    shift
+    local first_record_total=0
+    local wall_total=0
+    for ((i = 1; i <= RUNS; i++)); do
+        local start end output first_record
+        start=$(date +%s%N)
+        if ! output=$(java "$@" --add-modules jdk.incubator.vector -jar "$JAR" \
+            --back_test_id "$BACK_TEST_ID" --symbol "$SYMBOL" --scenario "$SCENARIO" --skip_upload 2>&1); then
+            echo "Error: $label run $i failed. Output of the run:"
+            echo "$output"
+            exit 1
+        fi
+        end=$(date +%s%N)
+        first_record=$(sed -n '/Time to first record: [0-9]* ms since JVM start/{s/.*Time to first record: \([0-9]*\) ms.*/\1/p;q;}' <<< "$output")
+        if [ -z "$first_record" ]; then
+            echo "Error: $label run $i did not log a time to first record. Output of the run:"
+            echo "$output"
+            exit 1
+        fi
+        first_record_total=$((first_record_total + first_record))
+        wall_total=$((wall_total + (end - start) / 1000000))
+    done
+    echo "$label: time to first record $((first_record_total / RUNS)) ms, wall time $((wall_total / RUNS)) ms (average of $RUNS runs)"
+}
+
+benchmark "Without AppCDS" -Xshare:auto
+benchmark "With AppCDS" -XX:SharedArchiveFile="$CDS_ARCHIVE" -Xshare:auto